@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between T1 (seen once recently) and T2 (seen at least twice); B1 and B2
+ * remember the ids of pages recently evicted from each. A miss that hits a
+ * ghost list moves the target size p of T1 towards the list that would have
+ * kept the page, so the balance between recency and frequency tunes itself
+ * to the workload.
+ */
+public class ArcEvictionPolicy implements EvictionPolicy {
+
+    private final int c;
+    private int p = 0; // target size of t1, protected by this
+    // iteration order is LRU to MRU for all four lists
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+
+    /**
+     * @param capacity the number of pages in the pool
+     */
+    public ArcEvictionPolicy(int capacity) {
+        this.c = capacity;
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid))
+            t2.add(pid);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid))
+            return;
+        if (b1.contains(pid)) {
+            p = Math.min(c, p + Math.max(1, b2.size() / b1.size()));
+            b1.remove(pid);
+            t2.add(pid);
+        } else if (b2.contains(pid)) {
+            p = Math.max(0, p - Math.max(1, b1.size() / b2.size()));
+            b2.remove(pid);
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        trimGhosts();
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (t1.remove(pid))
+            b1.add(pid);
+        else if (t2.remove(pid))
+            b2.add(pid);
+        trimGhosts();
+    }
+
+    public synchronized void pageDiscarded(PageId pid) {
+        if (!t1.remove(pid))
+            t2.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        PageId victim;
+        if (!t1.isEmpty() && (t1.size() > p || t2.isEmpty())) {
+            victim = lru(t1, evictable);
+            return victim != null ? victim : lru(t2, evictable);
+        }
+        victim = lru(t2, evictable);
+        return victim != null ? victim : lru(t1, evictable);
+    }
+
+    private static PageId lru(LinkedHashSet<PageId> list,
+                              java.util.function.Predicate<PageId> evictable) {
+        for (PageId pid : list) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    /** Keep |T1|+|B1| <= c and the whole directory <= 2c. */
+    private void trimGhosts() {
+        Iterator<PageId> it = b1.iterator();
+        while (t1.size() + b1.size() > c && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        it = b2.iterator();
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** @return the current target size of T1; exposed for tests and tuning */
+    synchronized int getTarget() {
+        return p;
+    }
+}
@@ -2,8 +2,19 @@ package simpledb;
 
 import java.io.*;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -27,8 +38,64 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Eviction policy used when none is passed to the constructor. It can
+    be overridden with -Dsimpledb.BufferPool.evictionPolicy=clock|lru-k|2q|arc. */
+    public static final String DEFAULT_EVICTION_POLICY =
+        System.getProperty("simpledb.BufferPool.evictionPolicy", "clock");
+
+    /** Number of off-heap victim cache slots used when none is passed to the
+    constructor. It can be overridden with -Dsimpledb.BufferPool.offHeapPages=n;
+    0 keeps no copies of evicted pages. */
+    public static final int DEFAULT_OFF_HEAP_PAGES =
+        Integer.getInteger("simpledb.BufferPool.offHeapPages", 0);
+
+    /** Upper bound on the number of frames in a ScanRing. */
+    public static final int SCAN_RING_PAGES = 16;
+
+    /** Number of stripes in the page table. */
+    private static final int PAGE_TABLE_STRIPES = 64;
+
+    /** Time the background writer sleeps between batches, in milliseconds. */
+    public static final long WRITER_INTERVAL_MS = 100;
+
+    /** Maximum number of pages the background writer writes per batch. */
+    public static final int WRITER_BATCH_PAGES = 32;
+
+    /** Number of pages a sequential scan reads ahead of itself. */
+    public static final int READ_AHEAD_PAGES = 8;
+
+    /** First int of a file written by {@link #saveResidentPages}. */
+    private static final int RESIDENT_PAGES_MAGIC = 0x53444250;
+
+    /** Number of slots pages are hashed to when their writes are counted. */
+    private static final int WRITE_SLOTS = 1024;
+
+    /** Number of threads that serve reads ahead, shared by all pools. */
+    private static final int IO_THREADS = 4;
+
+    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final int numPages;
-    private final Map<PageId, Page> bufferPool = new ConcurrentHashMap<>();
+    private final PageTable pageTable;
+    private final EvictionPolicy evictionPolicy;
+    private final VictimCache victimCache;
+    private final LockManager lockManager = new LockManager();
+    private final PageWriter writer;
+    // writeSeq numbers the page writes; lastWrites holds the number of the
+    // latest write of any page hashed to each slot (see noteWrite)
+    private final AtomicLong writeSeq = new AtomicLong();
+    private final AtomicLongArray lastWrites = new AtomicLongArray(WRITE_SLOTS);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong offHeapHits = new AtomicLong();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -36,7 +103,40 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
+        this(numPages, EvictionPolicy.create(DEFAULT_EVICTION_POLICY, numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and replaces
+     * them according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the policy that picks eviction victims; it must
+     *   not be shared with another pool.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this(numPages, evictionPolicy, DEFAULT_OFF_HEAP_PAGES);
+    }
+
+    /**
+     * Creates a BufferPool that keeps up to numPages pages on the Java heap,
+     * and copies of up to offHeapPages more in an off-heap
+     * {@link VictimCache}. Clean pages evicted from the heap are copied to
+     * the cache, and a page found there is decoded again into a heap frame
+     * instead of being read from disk.
+     *
+     * @param numPages maximum number of pages on the heap.
+     * @param evictionPolicy the policy that picks eviction victims; it must
+     *   not be shared with another pool.
+     * @param offHeapPages number of victim cache slots, or 0 for none.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy, int offHeapPages) {
         this.numPages = numPages;
+        this.evictionPolicy = evictionPolicy;
+        this.victimCache = offHeapPages > 0 ? new VictimCache(offHeapPages, getPageSize()) : null;
+        this.pageTable = new PageTable(PAGE_TABLE_STRIPES, evictionPolicy);
+        this.writer = new PageWriter(this, WRITER_INTERVAL_MS, WRITER_BATCH_PAGES);
+        writer.start();
     }
     
     public static int getPageSize() {
@@ -71,16 +171,489 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        // if page isn't in the bp, then add into it.
-        if(!bufferPool.containsKey(pid)) {
+        lock(tid, pid, perm);
+        Frame frame = pinFrame(pid);
+        try {
+            return frame.getPage();
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage}, and pin it: the
+     * page will not be evicted until {@link #unpinPage} is called for it.
+     * Callers that keep using a page after getPage returns, such as an
+     * iterator walking the tuples of the page, should pin it.
+     * <p>
+     * If a ScanRing is given and the request is read-only, a page that is
+     * not already in the pool is read into the ring instead of the pool, so
+     * a large scan leaves the pool's contents alone. Pages returned from the
+     * ring are private to the scan and are not pinned; unpinPage ignores
+     * them.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the pool directly
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        lock(tid, pid, perm);
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return pinFrame(pid).getPage();
+        }
+        Frame frame = pageTable.pinIfLoaded(pid);
+        if (frame != null) {
+            hits.incrementAndGet();
+            evictionPolicy.pageHit(pid);
+            return frame.getPage();
+        }
+        // a page read ahead before we held the lock is stale if it has been
+        // written since
+        Page page = ring.get(pid, lastWrite(pid));
+        if (page != null) {
+            hits.incrementAndGet();
+            return page;
+        }
+        misses.incrementAndGet();
+        long seq = writeSeq.get();
+        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        ring.add(page, seq);
+        return page;
+    }
+
+    /**
+     * Release a pin taken by {@link #pinPage}.
+     *
+     * @param page the page returned by pinPage
+     */
+    public void unpinPage(Page page) {
+        Frame frame = pageTable.get(page.getId());
+        // pages from a ScanRing, or discarded since, have no frame of their own
+        if (frame != null && frame.getPage() == page) {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Take the page lock matching perm for tid. Requests without a
+     * transaction (tid == null) are not locked.
+     */
+    private void lock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (tid != null) {
+            lockManager.acquire(tid, pid, perm);
+        }
+    }
+
+    /**
+     * Find or read the frame for pid and pin it. Of all the threads that
+     * miss on the same page at the same time, exactly one reads it from
+     * disk; the others wait for that read.
+     */
+    private Frame pinFrame(PageId pid) throws DbException {
+        return pinFrame(pid, false);
+    }
+
+    /**
+     * @param prefetch true if the page is read ahead of its use, in which
+     *   case the read is counted as a prefetch instead of a miss, and a
+     *   page already in the pool is not counted at all
+     */
+    private Frame pinFrame(PageId pid, boolean prefetch) throws DbException {
+        Frame frame = pageTable.pin(pid);
+        if (!frame.claimLoad()) {
+            try {
+                frame.awaitPage();
+            } catch (DbException e) {
+                frame.unpin();
+                throw e;
+            }
+            if (!prefetch) {
+                hits.incrementAndGet();
+                evictionPolicy.pageHit(pid);
+            }
+            return frame;
+        }
+        try {
+            // our new frame already counts, so make room for it
+            while (pageTable.size() > numPages) {
+                evictPage(pid.getTableId());
+            }
             // take the file from catalog and use pid to get database file
             DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            // put it inside
-            Page page = file.readPage(pid);
+            byte[] image = victimCache == null ? null : victimCache.take(pid);
+            Page page = null;
+            if (image != null) {
+                try {
+                    page = file.createPage(pid, image);
+                } catch (UnsupportedOperationException e) {
+                    // the file can only read its pages from disk
+                }
+            }
+            if (page != null) {
+                if (!prefetch) {
+                    hits.incrementAndGet();
+                }
+                offHeapHits.incrementAndGet();
+            } else {
+                (prefetch ? prefetches : misses).incrementAndGet();
+                page = file.readPage(pid);
+            }
+            pageTable.loaded(frame, page);
+        } catch (IOException e) {
+            frame.failed(e);
+            frame.unpin();
+            pageTable.remove(frame);
+            throw new DbException("could not decode page " + pid + ": " + e.getMessage());
+        } catch (DbException | RuntimeException e) {
+            frame.failed(e);
+            frame.unpin();
+            pageTable.remove(frame);
+            throw e;
+        }
+        return frame;
+    }
+
+    /**
+     * Start reading pages first .. first+count-1 in the background, because
+     * a sequential scan is about to ask for them. The reads run on a shared
+     * I/O executor, so they overlap with the scan's work on the pages
+     * before them, and each run of consecutive pages that are not resident
+     * is read with one {@link DbFile#readPages} call. No lock is taken: the
+     * caller gets one as usual when it asks for a page.
+     * <p>
+     * Without a ring the pages are read into the pool. With one they are
+     * read into the ring, which keeps at most as many reads pending as it
+     * has frames.
+     *
+     * @param first the first page the scan will ask for soon
+     * @param count the number of pages to read ahead
+     * @param ring the scan's ring, or null
+     * @return the number of pages taken care of; less than count if the
+     *   ring has no room for more pending reads, and the caller should try
+     *   again for the rest once it has used some of the pages
+     */
+    public int prefetch(PageId first, int count, ScanRing ring) {
+        try {
+            if (ring == null) {
+                // don't claim more frames at once than eviction can free
+                int n = Math.min(count, Math.max(1, numPages / 4));
+                for (int i = 0; i < count; i += n) {
+                    int from = first.pageNumber() + i;
+                    int len = Math.min(n, count - i);
+                    ioExecutor.execute(() -> prefetchIntoPool(first.getTableId(), from, len));
+                }
+                return count;
+            }
+            int room = Math.min(count, ring.size() - ring.pendingCount());
+            List<PageId> run = new ArrayList<PageId>();
+            List<CompletableFuture<Page>> reads = new ArrayList<CompletableFuture<Page>>();
+            for (int i = 0; i < room; i++) {
+                PageId pid = new HeapPageId(first.getTableId(), first.pageNumber() + i);
+                if (pageTable.get(pid) != null || ring.contains(pid)) {
+                    submitRun(run, reads);
+                    continue;
+                }
+                CompletableFuture<Page> read = new CompletableFuture<Page>();
+                ring.addPending(pid, read, writeSeq.get());
+                run.add(pid);
+                reads.add(read);
+            }
+            submitRun(run, reads);
+            return Math.max(room, 0);
+        } catch (RejectedExecutionException e) {
+            // reading ahead is only an optimization
+            return count;
+        }
+    }
 
-            bufferPool.put(pid,page);
+    /**
+     * Read a run of consecutive pages for a ring with one call, and
+     * complete the futures the ring waits on. Empties run and reads.
+     */
+    private void submitRun(List<PageId> run, List<CompletableFuture<Page>> reads) {
+        if (run.isEmpty()) {
+            return;
         }
-        return bufferPool.get(pid);
+        final PageId first = run.get(0);
+        final List<CompletableFuture<Page>> futures = new ArrayList<CompletableFuture<Page>>(reads);
+        run.clear();
+        reads.clear();
+        ioExecutor.execute(() -> {
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+                List<Page> pages = file.readPages(first, futures.size());
+                prefetches.addAndGet(pages.size());
+                for (int i = 0; i < futures.size(); i++) {
+                    if (i < pages.size()) {
+                        futures.get(i).complete(pages.get(i));
+                    } else {
+                        futures.get(i).completeExceptionally(new NoSuchElementException("past the end of the file"));
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (CompletableFuture<Page> f : futures) {
+                    f.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the pages in [from, from+count) of a table into the pool. Pages
+     * that are resident, or being read by somebody else, are skipped; pages
+     * in the victim cache are taken from there; the others are read a run
+     * of consecutive pages at a time.
+     */
+    private void prefetchIntoPool(int tableId, int from, int count) {
+        List<Frame> run = new ArrayList<Frame>();
+        for (int i = 0; i < count; i++) {
+            PageId pid = new HeapPageId(tableId, from + i);
+            if (pageTable.get(pid) != null) {
+                loadRun(run);
+                continue;
+            }
+            if (victimCache != null && victimCache.contains(pid)) {
+                // the usual path takes it from the victim cache
+                loadRun(run);
+                try {
+                    pinFrame(pid, true).unpin();
+                } catch (DbException | RuntimeException e) {
+                    // the scan will read the page itself
+                }
+                continue;
+            }
+            Frame frame = pageTable.pin(pid);
+            if (frame.claimLoad()) {
+                run.add(frame);
+            } else {
+                frame.unpin();
+                loadRun(run);
+            }
+        }
+        loadRun(run);
+    }
+
+    /**
+     * Load the claimed, pinned frames of a run of consecutive pages with
+     * one read, then unpin them. Empties run.
+     *
+     * @return the number of pages loaded
+     */
+    private int loadRun(List<Frame> run) {
+        if (run.isEmpty()) {
+            return 0;
+        }
+        int loaded = 0;
+        try {
+            PageId first = run.get(0).pid;
+            while (pageTable.size() > numPages) {
+                evictPage(first.getTableId());
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+            List<Page> pages = file.readPages(first, run.size());
+            prefetches.addAndGet(pages.size());
+            for (; loaded < pages.size(); loaded++) {
+                Frame frame = run.get(loaded);
+                pageTable.loaded(frame, pages.get(loaded));
+                frame.unpin();
+            }
+        } catch (DbException | RuntimeException e) {
+            // the scan will read these pages itself
+        }
+        for (int i = loaded; i < run.size(); i++) {
+            Frame frame = run.get(i);
+            frame.failed(new DbException("read ahead of page " + frame.pid + " failed"));
+            frame.unpin();
+            pageTable.remove(frame);
+        }
+        run.clear();
+        return loaded;
+    }
+
+    /**
+     * Write the ids of the resident pages to f, so that a pool started
+     * later can be warmed up with {@link #loadResidentPages}. The list is
+     * written to a file next to f and then renamed over it, so a crash
+     * never leaves a torn list behind.
+     *
+     * @return the number of page ids written
+     */
+    public int saveResidentPages(File f) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (Frame frame : pageTable.frames()) {
+            pids.add(frame.pid);
+        }
+        Collections.sort(pids, PageWriter.PAGE_ORDER);
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(RESIDENT_PAGES_MAGIC);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.pageNumber());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        return pids.size();
+    }
+
+    /**
+     * Save the resident pages to f every intervalMs milliseconds, from the
+     * background writer, so that the list survives a crash.
+     *
+     * @param f the file to write, or null to stop saving
+     */
+    public void saveResidentPagesEvery(File f, long intervalMs) {
+        writer.saveEvery(f, intervalMs);
+    }
+
+    /**
+     * Read the page ids saved by {@link #saveResidentPages} and load those
+     * pages, sorted by table and page number so the reads sweep each file
+     * once, and each run of consecutive pages is read with one
+     * {@link DbFile#readPages} call. Pages of unknown tables, and pages
+     * past the end of their file, are skipped. Loading stops when the pool
+     * is full.
+     * <p>
+     * Database does not call this, nor save the list on shutdown: whoever
+     * loads the catalog should call this right after, and save the list
+     * before exiting or with {@link #saveResidentPagesEvery}.
+     *
+     * @return the number of pages loaded
+     */
+    public int loadResidentPages(File f) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != RESIDENT_PAGES_MAGIC) {
+                throw new IOException(f + " is not a list of resident pages");
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                pids.add(new HeapPageId(in.readInt(), in.readInt()));
+            }
+        } finally {
+            in.close();
+        }
+        Collections.sort(pids, PageWriter.PAGE_ORDER);
+        int loaded = 0;
+        List<Frame> run = new ArrayList<Frame>();
+        for (PageId pid : pids) {
+            if (!run.isEmpty()) {
+                PageId last = run.get(run.size() - 1).pid;
+                if (last.getTableId() != pid.getTableId() || last.pageNumber() + 1 != pid.pageNumber()) {
+                    loaded += loadRun(run);
+                }
+            }
+            // claimed frames count, so this never evicts
+            if (pageTable.size() >= numPages) {
+                break;
+            }
+            if (pageTable.get(pid) != null) {
+                loaded += loadRun(run);
+                continue;
+            }
+            if (victimCache != null && victimCache.contains(pid)) {
+                loaded += loadRun(run);
+                try {
+                    pinFrame(pid, true).unpin();
+                    loaded++;
+                } catch (DbException | RuntimeException e) {
+                    // the table is gone
+                }
+                continue;
+            }
+            Frame frame = pageTable.pin(pid);
+            if (frame.claimLoad()) {
+                run.add(frame);
+            } else {
+                frame.unpin();
+                loaded += loadRun(run);
+            }
+        }
+        // a run of an unknown table, or past the end of its file, fails
+        // in part or as a whole and is backed out by loadRun
+        return loaded + loadRun(run);
+    }
+
+    /**
+     * Decides whether a scan over a file should use a ScanRing. Only files
+     * larger than the whole pool qualify: a smaller file can be cached
+     * entirely, and a repeated scan of it should hit the pool.
+     *
+     * @param filePages the number of pages the scan will read
+     */
+    public boolean isLargeScan(int filePages) {
+        return filePages > numPages;
+    }
+
+    /**
+     * @return a new ring for a large sequential scan, sized to a small
+     *   fraction of this pool
+     */
+    public ScanRing newScanRing() {
+        return new ScanRing(Math.max(1, Math.min(SCAN_RING_PAGES, numPages / 8)));
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages read ahead of a scan by {@link #prefetch} */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /** @return the number of pages brought back from the victim cache */
+    public long getOffHeapHitCount() {
+        return offHeapHits.get();
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Reset the hit, miss, prefetch and eviction counters to zero. */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        prefetches.set(0);
+        offHeapHits.set(0);
+        evictions.set(0);
+    }
+
+    /** @return the number of deadlocks the lock manager has broken */
+    public long getDeadlockCount() {
+        return lockManager.getDeadlockCount();
+    }
+
+    /** @return the number of wait-for graph searches made by blocked lock requests */
+    public long getDeadlockDetectionCount() {
+        return lockManager.getDetectionCount();
+    }
+
+    /** @return the total time spent searching the wait-for graph, in nanoseconds */
+    public long getDeadlockDetectionNanos() {
+        return lockManager.getDetectionNanos();
+    }
+
+    /** @return the policy this pool uses to choose eviction victims */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
     }
 
     /**
@@ -94,7 +667,7 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -104,14 +677,13 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -124,7 +696,41 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                // the log is forced outside the pool's lock, so that
+                // concurrent commits share one fsync
+                List<Frame> logged = logPages(tid);
+                if (!logged.isEmpty()) {
+                    Database.getLogFile().logCommit(tid);
+                    writeCommitted(tid, logged);
+                }
+                // only exclusively locked pages can have been changed by tid
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Frame frame = pageTable.get(pid);
+                    if (frame != null && frame.isLoaded() && lockManager.holdsExclusive(tid, pid)) {
+                        frame.getPage().setBeforeImage();
+                    }
+                }
+            } else {
+                // drop tid's changes; the next reader gets the page from disk
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Frame frame = pageTable.get(pid);
+                    if (frame != null && frame.isLoaded() && tid.equals(frame.getPage().isDirty())) {
+                        if (frame.committedBy != null) {
+                            // the before image holds committed changes that
+                            // the writer has not written yet
+                            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                            file.writePage(frame.getPage().getBeforeImage());
+                            noteWrite(pid);
+                        }
+                        discardPage(pid);
+                    }
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -145,7 +751,12 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        Catalog catalog = Database.getCatalog();
+        DbFile file = catalog.getDatabaseFile(tableId);
+        for (Page page : file.insertTuple(tid, t)) {
+            page.markDirty(true, tid);
+        }
+        catalog.noteInsert(tableId, t);
     }
 
     /**
@@ -164,7 +775,17 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no record id");
+        }
+        int tableId = rid.getPageId().getTableId();
+        Catalog catalog = Database.getCatalog();
+        DbFile file = catalog.getDatabaseFile(tableId);
+        for (Page page : file.deleteTuple(tid, t)) {
+            page.markDirty(true, tid);
+        }
+        catalog.noteDelete(tableId, t);
     }
 
     /**
@@ -175,7 +796,9 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (Frame frame : pageTable.frames()) {
+            flushPage(frame.pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -188,7 +811,10 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-        // not necessary for lab1
+        pageTable.remove(pid);
+        if (victimCache != null) {
+            victimCache.remove(pid);
+        }
     }
 
     /**
@@ -197,23 +823,247 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        Frame frame = pageTable.get(pid);
+        if (frame != null) {
+            writeFrame(frame);
+        }
+    }
+
+    /**
+     * Write the page of a frame if it is dirty, and mark it clean. The
+     * caller makes sure nobody changes the page meanwhile.
+     */
+    private void writeFrame(Frame frame) throws IOException {
+        Page page = frame.getPage();
+        if (page == null || page.isDirty() == null) {
+            return;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+        file.writePage(page);
+        noteWrite(frame.pid);
+        page.markDirty(false, null);
+        frame.committedBy = null;
+    }
+
+    /**
+     * Record that pid has just been written to disk, so that a copy of it
+     * read ahead into a ScanRing before the write is not used. Pages share
+     * slots, so a write can also drop copies of other pages, which are then
+     * only read again.
+     */
+    private void noteWrite(PageId pid) {
+        lastWrites.accumulateAndGet(writeSlot(pid), writeSeq.incrementAndGet(), Math::max);
+    }
+
+    /** @return the write sequence number of the latest write of pid */
+    private long lastWrite(PageId pid) {
+        return lastWrites.get(writeSlot(pid));
+    }
+
+    private static int writeSlot(PageId pid) {
+        return pid.hashCode() & (WRITE_SLOTS - 1);
+    }
+
+    /**
+     * Write a page whose changes have been committed, if no transaction is
+     * changing it right now. The page is read under a shared lock, so the
+     * bytes written are never those of an uncommitted change. Every flush
+     * takes the lock for a transaction of its own: with one shared by all
+     * flushing threads, the first to finish would release the lock the
+     * others still rely on.
+     *
+     * @return true if the page was written
+     */
+    boolean flushCommittedPage(PageId pid) throws IOException {
+        Frame frame = pageTable.get(pid);
+        if (frame == null || !isCommittedDirty(frame)) {
+            return false;
+        }
+        TransactionId flusher = new TransactionId();
+        if (!lockManager.tryAcquireShared(flusher, pid)) {
+            return false;
+        }
+        try {
+            // check again, now that nobody can change the page
+            if (!isCommittedDirty(frame)) {
+                return false;
+            }
+            flushPage(pid);
+            return true;
+        } finally {
+            lockManager.release(flusher, pid);
+        }
+    }
+
+    /**
+     * @return true if the frame's page is dirty only with changes of a
+     *   transaction that has committed
+     */
+    static boolean isCommittedDirty(Frame frame) {
+        Page page = frame.getPage();
+        TransactionId dirtier = page == null ? null : page.isDirty();
+        return dirtier != null && dirtier.equals(frame.committedBy);
+    }
+
+    /** @return the frames of all resident pages */
+    List<Frame> frames() {
+        return pageTable.frames();
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * Their before and after images are first appended to the log, which
+     * is forced once for all of them. The pages are then written as well
+     * (FORCE): the log cannot yet be used to redo a committed change after
+     * a crash, so a commit is only durable once its pages are on disk.
+     * Neither the force nor the writes hold the pool's lock.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        List<Frame> logged = logPages(tid);
+        if (!logged.isEmpty()) {
+            Database.getLogFile().force();
+            writeCommitted(tid, logged);
+        }
+    }
+
+    /**
+     * Append the before and after images of the pages tid changed to the
+     * log, without forcing it.
+     *
+     * @return the frames of the pages logged
+     */
+    private synchronized List<Frame> logPages(TransactionId tid) throws IOException {
+        List<Frame> logged = new ArrayList<Frame>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Frame frame = pageTable.get(pid);
+            if (frame == null || !frame.isLoaded()) {
+                continue;
+            }
+            Page page = frame.getPage();
+            if (tid.equals(page.isDirty()) && !tid.equals(frame.committedBy)) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+                logged.add(frame);
+            }
+        }
+        return logged;
+    }
+
+    /**
+     * Write the logged pages of tid, in file order, now that the log
+     * holding them is on disk. tid still holds its exclusive locks on the
+     * pages, which keeps everybody else from changing, writing or evicting
+     * them, so the writes are made without the pool's lock and other
+     * transactions go on meanwhile. A page that cannot be written stays
+     * dirty with committed changes, for the background writer to try
+     * again.
+     */
+    private void writeCommitted(TransactionId tid, List<Frame> logged) throws IOException {
+        for (Frame frame : logged) {
+            frame.committedBy = tid;
+        }
+        Collections.sort(logged, (a, b) -> PageWriter.PAGE_ORDER.compare(a.pid, b.pid));
+        for (Frame frame : logged) {
+            writeFrame(frame);
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Pages with uncommitted changes are never evicted (NO STEAL), and the
+     * tables' {@link BufferQuota}s are respected.
+     *
+     * @param loadingTable the table of the page we make room for
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized  void evictPage(int loadingTable) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        Catalog catalog = Database.getCatalog();
+        if (!catalog.hasBufferQuotas()) {
+            if (evictPage(this::isEvictable)) {
+                return;
+            }
+            throw new DbException("all pages in the buffer pool are pinned or dirty");
+        }
+        // a table at its maximum makes room among its own pages; the count
+        // already includes the frame being loaded
+        if (pageTable.size(loadingTable) > catalog.getBufferQuota(loadingTable).getMaxPages()
+                && evictPage(pid -> pid.getTableId() == loadingTable && isEvictable(pid))) {
+            return;
+        }
+        for (BufferQuota.Priority p : BufferQuota.Priority.values()) {
+            if (evictPage(pid -> isEvictable(pid) && mayGiveUp(catalog, pid, p))) {
+                return;
+            }
+        }
+        throw new DbException("all pages in the buffer pool are pinned, dirty or reserved");
+    }
+
+    /**
+     * @return true if the quota of pid's table lets it give up a page to a
+     *   search for victims of priority p or below
+     */
+    private boolean mayGiveUp(Catalog catalog, PageId pid, BufferQuota.Priority p) {
+        BufferQuota quota = catalog.getBufferQuota(pid.getTableId());
+        return quota.getPriority().compareTo(p) <= 0
+            && pageTable.size(pid.getTableId()) > quota.getMinPages();
+    }
+
+    /**
+     * Evict one page accepted by evictable.
+     *
+     * @return false if the policy found no such page
+     */
+    private boolean evictPage(java.util.function.Predicate<PageId> evictable) throws DbException {
+        // the chosen page may get pinned or dirtied again before we remove
+        // it, so give the policy a few chances before giving up
+        for (int attempt = 0; attempt <= numPages; attempt++) {
+            PageId victim = evictionPolicy.chooseVictim(evictable);
+            if (victim == null) {
+                break;
+            }
+            Frame frame = pageTable.get(victim);
+            if (frame != null && isCommittedDirty(frame)) {
+                // the writer has fallen behind
+                writer.wakeUp();
+                try {
+                    flushCommittedPage(victim);
+                } catch (IOException e) {
+                    throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+                }
+            }
+            // copy the page while the frame is still there, so nobody
+            // can read the page back in between
+            Page page = frame == null ? null : frame.getPage();
+            boolean offHeap = victimCache != null && page != null && page.isDirty() == null;
+            if (offHeap) {
+                // a clean page's buffer is never written to again, as pages
+                // change a copy of it
+                victimCache.put(victim, page instanceof TuplePage ? ((TuplePage) page).getPageBuffer()
+                                : ByteBuffer.wrap(page.getPageData()));
+            }
+            if (pageTable.evict(victim)) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            if (offHeap) {
+                victimCache.remove(victim);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if pid may be evicted: it is resident, unpinned, and
+     *   either clean or dirty only with committed changes
+     */
+    private boolean isEvictable(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        if (frame == null || !pageTable.isEvictable(pid)) {
+            return false;
+        }
+        return frame.getPage().isDirty() == null || isCommittedDirty(frame);
     }
 
 }
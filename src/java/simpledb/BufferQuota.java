@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * BufferQuota says how much of the BufferPool one table may take, and how
+ * much of it the table keeps. Quotas are registered per table id with
+ * {@link Catalog#setBufferQuota}; tables without one share the pool
+ * freely.
+ * <p>
+ * When the pool needs a victim it first looks among the pages of LOW
+ * priority tables, then also NORMAL ones, and only then HIGH ones, and it
+ * never takes a page from a table that has no more than its minimum
+ * resident. A table that already holds its maximum replaces its own pages
+ * instead of anybody else's. A small dimension table can thus be kept in
+ * memory entirely, and a batch job can be confined to a corner of the pool.
+ *
+ * @Immutable
+ */
+public final class BufferQuota {
+
+    /** The order in which tables give up their pages. */
+    public enum Priority { LOW, NORMAL, HIGH }
+
+    /** What a table without a registered quota gets. */
+    public static final BufferQuota DEFAULT = new BufferQuota(Priority.NORMAL, 0, Integer.MAX_VALUE);
+
+    private final Priority priority;
+    private final int minPages;
+    private final int maxPages;
+
+    /**
+     * @param priority the order in which the table gives up pages
+     * @param minPages the number of pages the table keeps once it has them;
+     *   Integer.MAX_VALUE keeps every page of the table resident
+     * @param maxPages the most pages the table may hold
+     */
+    public BufferQuota(Priority priority, int minPages, int maxPages) {
+        if (priority == null)
+            throw new IllegalArgumentException("priority must not be null");
+        if (minPages < 0 || maxPages < 1)
+            throw new IllegalArgumentException("bad page limits " + minPages + ", " + maxPages);
+        this.priority = priority;
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public int getMinPages() {
+        return minPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public String toString() {
+        return priority + "[" + minPages + ", " + maxPages + "]";
+    }
+}
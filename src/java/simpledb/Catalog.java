@@ -2,10 +2,9 @@ package simpledb;
 
 
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -18,13 +17,31 @@ import java.util.concurrent.ConcurrentHashMap;
  * For now, this is a stub catalog that must be populated with tables by a
  * user program before it can be used -- eventually, this should be converted
  * to a catalog that reads a catalog table from disk.
+ * <p>
+ * Table ids are handed out by {@link #tableIdFor}: small, dense numbers,
+ * one per file, that are kept next to the catalog file by
+ * {@link #loadSchema} so that a table keeps its id across restarts. Tables
+ * with such ids are kept in an array indexed by id, so looking one up on a
+ * BufferPool miss is an array read; other ids go through a map.
  * 
  * @Threadsafe
  */
 public class Catalog {
 
+    /** Ids below this are kept in {@link #tablesById}. */
+    static final int MAX_ARRAY_ID = 1 << 16;
+
+    /** Ids handed out by {@link #tableIdFor}, by absolute path, for every catalog. */
+    private static final HashMap<String,Integer> fileIds = new HashMap<>();
+    private static final HashMap<Integer,String> idFiles = new HashMap<>();
+    private static int nextFileId = 0;
+
+    /** Tables with ids below MAX_ARRAY_ID; replaced, never changed, under this */
+    private volatile Table[] tablesById = new Table[16];
     ConcurrentHashMap<Integer,Table> tableIdMap;
     ConcurrentHashMap<String,Integer> tableNameMap;
+    ConcurrentHashMap<Integer,BufferQuota> bufferQuotaMap;
+    ConcurrentHashMap<Integer,TableStats> tableStatsMap;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -33,6 +50,8 @@ public class Catalog {
         // some code goes here
         tableIdMap = new ConcurrentHashMap<>();
         tableNameMap = new ConcurrentHashMap<>();
+        bufferQuotaMap = new ConcurrentHashMap<>();
+        tableStatsMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -44,10 +63,78 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        tableIdMap.put(file.getId(),new Table(file,name,pkeyField));
-        tableNameMap.put(name,file.getId());
+        int id = file.getId();
+        Table table = new Table(file,name,pkeyField);
+        if (id >= 0 && id < MAX_ARRAY_ID) {
+            Table[] tables = tablesById;
+            tables = Arrays.copyOf(tables, Math.max(tables.length, Math.min(MAX_ARRAY_ID, 2 * id + 1)));
+            tables[id] = table;
+            tablesById = tables;
+        }
+        tableIdMap.put(id,table);
+        tableNameMap.put(name,id);
+    }
+
+    /**
+     * Returns the table id of the file f: the same id every time for the
+     * same file, and a different one for every other file. Ids are handed
+     * out from 0 up, so they can index an array.
+     */
+    public static int tableIdFor(File f) {
+        String path = f.getAbsolutePath();
+        synchronized (fileIds) {
+            Integer id = fileIds.get(path);
+            if (id == null) {
+                while (idFiles.containsKey(nextFileId))
+                    nextFileId++;
+                id = nextFileId++;
+                fileIds.put(path, id);
+                idFiles.put(id, path);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Give the file at path the id it had before.
+     * @throws IllegalStateException if the file already has a different id
+     *     in this process, or the id belongs to another file
+     */
+    static void reserveTableId(String path, int id) {
+        if (id < 0)
+            throw new IllegalArgumentException("bad table id " + id + " for " + path);
+        synchronized (fileIds) {
+            Integer had = fileIds.get(path);
+            if (had != null && had == id)
+                return;
+            if (had != null)
+                throw new IllegalStateException("table id conflict: " + path + " has id " + had
+                                                + ", not " + id);
+            if (idFiles.containsKey(id))
+                throw new IllegalStateException("table id conflict: id " + id + " of " + path
+                                                + " belongs to " + idFiles.get(id));
+            fileIds.put(path, id);
+            idFiles.put(id, path);
+        }
+    }
+
+    /** @return the table with the given id, or null */
+    private Table table(int tableid) {
+        if (tableid >= 0 && tableid < MAX_ARRAY_ID) {
+            Table[] tables = tablesById;
+            return tableid < tables.length ? tables[tableid] : null;
+        }
+        return tableIdMap.get(tableid);
+    }
+
+    /** @return the table with the given id */
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table table = table(tableid);
+        if (table == null)
+            throw new NoSuchElementException("table does not exist");
+        return table;
     }
 
     public void addTable(DbFile file, String name) {
@@ -87,12 +174,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (tableIdMap.containsKey(tableid)) {
-            return tableIdMap.get(tableid).getFile().getTupleDesc();
-
-        }
-        throw new NoSuchElementException("table does not exist");
-
+        return getTable(tableid).getFile().getTupleDesc();
     }
 
     /**
@@ -103,20 +185,12 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (tableIdMap.containsKey(tableid)) {
-            return tableIdMap.get(tableid).getFile();
-        }
-        throw new NoSuchElementException("table does not exist");
-
+        return getTable(tableid).getFile();
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
-        if(tableIdMap.containsKey(tableid)) {
-            return tableIdMap.get(tableid).getPkeyField();
-
-        }
-        throw new NoSuchElementException("table does not exist");
+        return getTable(tableid).getPkeyField();
     }
 
     public Iterator<Integer> tableIdIterator() {
@@ -127,71 +201,318 @@ public class Catalog {
 
     public String getTableName(int id) {
         // some code goes here
-        if (tableIdMap.containsKey(id)) {
-            return tableIdMap.get(id).getName();
-        }
-        throw new NoSuchElementException("table does not exist");
+        return getTable(id).getName();
     }
     
+    /**
+     * Set the share of the buffer pool the specified table may take and
+     * keep.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param quota the table's quota, or null to remove it
+     */
+    public void setBufferQuota(int tableid, BufferQuota quota) {
+        if (quota == null) {
+            bufferQuotaMap.remove(tableid);
+        } else {
+            bufferQuotaMap.put(tableid, quota);
+        }
+    }
+
+    /**
+     * Returns the buffer pool quota of the specified table, or
+     * {@link BufferQuota#DEFAULT} if it has none.
+     */
+    public BufferQuota getBufferQuota(int tableid) {
+        BufferQuota quota = bufferQuotaMap.get(tableid);
+        return quota == null ? BufferQuota.DEFAULT : quota;
+    }
+
+    /** @return true if any table has a buffer pool quota */
+    public boolean hasBufferQuotas() {
+        return !bufferQuotaMap.isEmpty();
+    }
+
+    /**
+     * Record the size of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param stats the table's statistics, or null to forget them
+     */
+    public void setTableStats(int tableid, TableStats stats) {
+        if (stats == null) {
+            tableStatsMap.remove(tableid);
+        } else {
+            tableStatsMap.put(tableid, stats);
+        }
+    }
+
+    /**
+     * Returns the statistics of the specified table, or null if none have
+     * been recorded.
+     */
+    public TableStats getTableStats(int tableid) {
+        return tableStatsMap.get(tableid);
+    }
+
+    /**
+     * Compute the statistics of the specified table from a sample of its
+     * pages, and keep them for {@link #getTableStats}.
+     * @param tid the transaction reading the table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws DbException if the table is not a HeapFile
+     */
+    public TableStats computeTableStats(TransactionId tid, int tableid)
+        throws DbException, TransactionAbortedException {
+        DbFile file = getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new DbException("no statistics for table " + tableid + ", not a HeapFile");
+        TableStats stats = TableStats.compute(tid, (HeapFile) file, TableStats.SAMPLE_PAGES);
+        setTableStats(tableid, stats);
+        return stats;
+    }
+
+    /** Update the statistics of the specified table, if any, for an insert of t. */
+    void noteInsert(int tableid, Tuple t) {
+        TableStats stats = tableStatsMap.get(tableid);
+        if (stats != null) {
+            Table table = table(tableid);
+            int numPages = table != null && table.getFile() instanceof HeapFile
+                ? ((HeapFile) table.getFile()).numPages() : 0;
+            stats.addTuple(t, numPages);
+        }
+    }
+
+    /** Update the statistics of the specified table, if any, for a delete of t. */
+    void noteDelete(int tableid, Tuple t) {
+        TableStats stats = tableStatsMap.get(tableid);
+        if (stats != null)
+            stats.removeTuple(t);
+    }
+
+    /**
+     * Save the HeapFile tables of the catalog, with their ids and
+     * statistics, to a binary catalog file that {@link #loadCatalog} and
+     * {@link #loadSchema} read back.
+     * @see CatalogFile
+     */
+    public void saveCatalog(File f) throws IOException {
+        CatalogFile.save(this, f);
+    }
+
+    /**
+     * Add the tables of a binary catalog file written by
+     * {@link #saveCatalog}. Every table gets its saved id back.
+     * @throws IOException if the file cannot be read, is not a valid
+     *     catalog file, or a table's id conflicts with one already handed
+     *     out in this process; no tables are added then
+     */
+    public void loadCatalog(File f) throws IOException {
+        CatalogFile.load(this, f);
+    }
+
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
+        tablesById = new Table[16];
         tableIdMap.clear();
+        tableNameMap.clear();
+        bufferQuotaMap.clear();
+        tableStatsMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <code>name (field type [pk], ...) [mmap] [slotted|pax]</code>;
+     * the optional mmap reads the table through a memory mapping, and
+     * slotted and pax store it in {@link PageFormat#SLOTTED} or
+     * {@link PageFormat#PAX} pages.
+     * <p>
+     * The tables' ids are saved in <code>catalogFile.ids</code>, and given
+     * to the same tables again the next time the schema is loaded. That
+     * file is only written when the ids change, and a schema whose ids
+     * cannot be saved (say, in a read-only directory) is loaded all the
+     * same.
+     * <p>
+     * A binary catalog written by {@link #saveCatalog} is read with
+     * {@link #loadCatalog} instead.
+     * <p>
+     * No tables are added unless the whole file is read.
      * @param catalogFile
+     * @throws IllegalArgumentException if a line of the file is invalid
+     * @throws IllegalStateException if an id saved for a table conflicts
+     *     with one already handed out in this process
+     * @throws UncheckedIOException if the file cannot be read
      */
     public void loadSchema(String catalogFile) {
-        String line = "";
-        String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();
+        File schemaFile = new File(catalogFile);
         try {
-            BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
-            
-            while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
-                String name = line.substring(0, line.indexOf("(")).trim();
-                //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
-                String[] els = fields.split(",");
-                ArrayList<String> names = new ArrayList<String>();
-                ArrayList<Type> types = new ArrayList<Type>();
-                String primaryKey = "";
-                for (String e : els) {
-                    String[] els2 = e.trim().split(" ");
-                    names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
-                        System.out.println("Unknown type " + els2[1]);
-                        System.exit(0);
-                    }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
-                            primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
-                            System.exit(0);
-                        }
+            if (CatalogFile.isCatalogFile(schemaFile)) {
+                loadCatalog(schemaFile);
+                return;
+            }
+            String baseFolder = schemaFile.getAbsoluteFile().getParent();
+            File idFile = new File(catalogFile + ".ids");
+            Map<String,Integer> savedIds = loadTableIds(idFile);
+            ArrayList<HeapFile> files = new ArrayList<HeapFile>();
+            ArrayList<String> tableNames = new ArrayList<String>();
+            ArrayList<String> primaryKeys = new ArrayList<String>();
+            BufferedReader br = new BufferedReader(new FileReader(schemaFile));
+            try {
+                String line;
+                int lineNo = 0;
+                while ((line = br.readLine()) != null) {
+                    lineNo++;
+                    if (line.trim().isEmpty())
+                        continue;
+                    try {
+                        parseSchemaLine(line, baseFolder, files, tableNames, primaryKeys);
+                    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                        throw new IllegalArgumentException(catalogFile + ":" + lineNo
+                            + ": invalid catalog entry: " + e.getMessage(), e);
                     }
                 }
-                Type[] typeAr = types.toArray(new Type[0]);
-                String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+            } finally {
+                br.close();
             }
+            for (int i = 0; i < files.size(); i++) {
+                addTable(files.get(i), tableNames.get(i), primaryKeys.get(i));
+                System.out.println("Added table : " + tableNames.get(i) + " with schema " + files.get(i).getTupleDesc());
+            }
+            if (!savedIds.equals(heapFileIds()))
+                saveTableIds(idFile);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
-            System.out.println ("Invalid catalog entry : " + line);
-            System.exit(0);
+            throw new UncheckedIOException(e);
         }
     }
-}
 
+    /**
+     * Parse one line of a text schema and add its table's file, name and
+     * primary key to the given lists.
+     * @throws IllegalArgumentException if the line is invalid
+     */
+    private static void parseSchemaLine(String line, String baseFolder, List<HeapFile> files,
+                                        List<String> tableNames, List<String> primaryKeys) {
+        //assume line is of the format name (field type, field type, ...)
+        int open = line.indexOf("(");
+        int close = line.indexOf(")");
+        if (open < 0 || close < open)
+            throw new IllegalArgumentException("expected name (field type, ...)");
+        String name = line.substring(0, open).trim();
+        String fields = line.substring(open + 1, close).trim();
+        String options = line.substring(close + 1).trim();
+        boolean mapped = false;
+        PageFormat format = PageFormat.HEAP;
+        for (String option : options.split("\\s+")) {
+            if (option.equals("mmap"))
+                mapped = true;
+            else if (option.equals("slotted"))
+                format = PageFormat.SLOTTED;
+            else if (option.equals("pax"))
+                format = PageFormat.PAX;
+            else if (!option.isEmpty())
+                throw new IllegalArgumentException("unknown table option " + option);
+        }
+        String[] els = fields.split(",");
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        String primaryKey = "";
+        for (String e : els) {
+            String[] els2 = e.trim().split(" ");
+            if (els2.length < 2 || els2.length > 3)
+                throw new IllegalArgumentException("expected field type [pk], not " + e.trim());
+            names.add(els2[0].trim());
+            if (els2[1].trim().toLowerCase().equals("int"))
+                types.add(Type.INT_TYPE);
+            else if (els2[1].trim().toLowerCase().equals("string"))
+                types.add(Type.STRING_TYPE);
+            else
+                throw new IllegalArgumentException("unknown type " + els2[1]);
+            if (els2.length == 3) {
+                if (els2[2].trim().equals("pk"))
+                    primaryKey = els2[0].trim();
+                else
+                    throw new IllegalArgumentException("unknown annotation " + els2[2]);
+            }
+        }
+        Type[] typeAr = types.toArray(new Type[0]);
+        String[] namesAr = names.toArray(new String[0]);
+        TupleDesc t = new TupleDesc(typeAr, namesAr);
+        File tabFile = new File(baseFolder+"/"+name + ".dat");
+        files.add(format == PageFormat.PAX ? new PaxFile(tabFile, t, mapped)
+                  : new HeapFile(tabFile, t, mapped, format));
+        tableNames.add(name);
+        primaryKeys.add(primaryKey);
+    }
+
+    /**
+     * Reserve the ids saved in f by {@link #saveTableIds} for their files.
+     * The file only saves work, so one that is missing, unreadable or
+     * damaged is passed over and the tables get new ids.
+     * @return the ids read, by path
+     * @throws IllegalStateException if a saved id conflicts with one
+     *     already handed out
+     */
+    private static Map<String,Integer> loadTableIds(File f) {
+        Map<String,Integer> ids = new HashMap<String,Integer>();
+        if (!f.exists())
+            return ids;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(f));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0)
+                        ids.put(line.substring(tab + 1), Integer.parseInt(line.substring(0, tab)));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Debug.log("ignoring table id file %s: %s", f, e);
+            return new HashMap<String,Integer>();
+        }
+        for (Map.Entry<String,Integer> e : ids.entrySet())
+            reserveTableId(e.getKey(), e.getValue());
+        return ids;
+    }
+
+    /** @return the id of every HeapFile in the catalog, by path */
+    private Map<String,Integer> heapFileIds() {
+        Map<String,Integer> ids = new HashMap<String,Integer>();
+        for (Table table : tableIdMap.values()) {
+            if (table.getFile() instanceof HeapFile) {
+                HeapFile hf = (HeapFile) table.getFile();
+                ids.put(hf.getFile().getAbsolutePath(), hf.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Write the id and path of every HeapFile in the catalog to f, through
+     * a temporary file renamed over it. The file only saves work, so a
+     * failure to write it is logged and otherwise ignored.
+     */
+    private void saveTableIds(File f) {
+        File tmp = new File(f.getPath() + ".tmp");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmp)));
+            try {
+                for (Map.Entry<String,Integer> e : heapFileIds().entrySet())
+                    out.print(e.getValue() + "\t" + e.getKey() + "\n");
+                if (out.checkError())
+                    throw new IOException("could not write " + tmp);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Debug.log("could not save table ids to %s: %s", f, e);
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * CatalogFile reads and writes the binary form of a {@link Catalog}: the
+ * name, id, file, page format, primary key and schema of every HeapFile
+ * table, and its {@link TableStats}. A catalog of thousands of tables is
+ * read from a memory mapping in one pass, without opening or scanning any
+ * of the tables.
+ * <p>
+ * The file starts with a header of a magic number, the format version, the
+ * number of tables and a CRC of the rest of the file, which is one entry
+ * per table. Every entry is prefixed with its length, so that fields added
+ * to the end of an entry by a later version are told apart by where the
+ * entry ends: version 1 entries stop after the table sizes, and version 2
+ * added the {@link ColumnStats} of each column. Strings are an unsigned
+ * short length and UTF-8 bytes. Table files are stored relative to the
+ * catalog file's directory, so a database can be moved as a whole.
+ *
+ * @see Catalog#saveCatalog
+ * @see Catalog#loadCatalog
+ */
+final class CatalogFile {
+
+    /** First int of a catalog file. */
+    static final int MAGIC = 0x53444243;
+
+    /** The version written; files of this and older versions are read. */
+    static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 16;
+
+    private static final byte INT_TYPE = 0;
+    private static final byte STRING_TYPE = 1;
+
+    private static final byte MAPPED = 1;
+
+    private CatalogFile() {
+    }
+
+    /** @return true if f starts like a catalog file */
+    static boolean isCatalogFile(File f) {
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                return in.readInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write every HeapFile table of catalog to f, through a temporary file
+     * renamed over it. Tables that are not HeapFiles are left out.
+     */
+    static void save(Catalog catalog, File f) throws IOException {
+        Path base = f.getAbsoluteFile().getParentFile().toPath();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        int count = 0;
+        for (Integer id : catalog.tableIdMap.keySet()) {
+            DbFile file = catalog.getDatabaseFile(id);
+            if (!(file instanceof HeapFile))
+                continue;
+            HeapFile hf = (HeapFile) file;
+            TableStats stats = catalog.getTableStats(id);
+            if (stats == null)
+                stats = new TableStats(hf.numPages(), TableStats.UNKNOWN);
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            writeEntry(new DataOutputStream(entry), id, catalog.getTableName(id),
+                       base.relativize(hf.getFile().getAbsoluteFile().toPath()).toString(),
+                       catalog.getPrimaryKey(id), hf, stats);
+            out.writeInt(entry.size());
+            entry.writeTo(out);
+            count++;
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream fout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            fout.writeInt(MAGIC);
+            fout.writeShort(VERSION);
+            fout.writeShort(0);
+            fout.writeInt(count);
+            fout.writeInt((int) crc.getValue());
+            body.writeTo(fout);
+        } finally {
+            fout.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeEntry(DataOutputStream out, int id, String name, String path,
+                                   String pkey, HeapFile hf, TableStats stats) throws IOException {
+        out.writeInt(id);
+        writeString(out, name);
+        writeString(out, path);
+        writeString(out, pkey == null ? "" : pkey);
+        writeString(out, hf.getPageFormat().name());
+        out.writeByte(hf.isMapped() ? MAPPED : 0);
+        TupleDesc td = hf.getTupleDesc();
+        out.writeShort(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(td.getFieldType(i) == Type.INT_TYPE ? INT_TYPE : STRING_TYPE);
+            String fieldName = td.getFieldName(i);
+            writeString(out, fieldName == null ? "" : fieldName);
+        }
+        out.writeInt(stats.getNumPages());
+        out.writeLong(stats.getNumTuples());
+        out.writeLong(stats.getChanges());
+        out.writeBoolean(stats.hasColumnStats());
+        if (stats.hasColumnStats()) {
+            for (int i = 0; i < td.numFields(); i++)
+                stats.getColumnStats(i).write(out);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xffff)
+            throw new IOException("string too long for the catalog: " + s.substring(0, 40) + "...");
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    /** One table read from a catalog file. */
+    private static final class Entry {
+        int id;
+        String name;
+        File file;
+        String pkey;
+        PageFormat format;
+        boolean mapped;
+        TupleDesc td;
+        TableStats stats;
+    }
+
+    /**
+     * Add the tables saved in f to catalog. Nothing is added unless the
+     * whole file is read.
+     *
+     * @throws IOException if f cannot be read, is not a catalog file, was
+     *   written by a newer version or is corrupt
+     */
+    static void load(Catalog catalog, File f) throws IOException {
+        ByteBuffer buf;
+        FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            ch.close();
+        }
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC)
+            throw new IOException(f + " is not a catalog file");
+        int version = buf.getShort() & 0xffff;
+        buf.getShort();
+        if (version > VERSION)
+            throw new IOException(f + " has catalog version " + version + ", newer than " + VERSION);
+        int count = buf.getInt();
+        int crc = buf.getInt();
+        CRC32 check = new CRC32();
+        check.update(buf.duplicate());
+        if ((int) check.getValue() != crc)
+            throw new IOException(f + " is corrupt: checksum mismatch");
+
+        File base = f.getAbsoluteFile().getParentFile();
+        List<Entry> entries = new ArrayList<Entry>();
+        try {
+            for (int i = 0; i < count; i++) {
+                int len = buf.getInt();
+                ByteBuffer e = buf.slice();
+                e.limit(len);
+                buf.position(buf.position() + len);
+                entries.add(readEntry(e, base));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(f + " is corrupt", e);
+        }
+
+        for (Entry e : entries) {
+            try {
+                Catalog.reserveTableId(e.file.getAbsolutePath(), e.id);
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                throw new IOException(f + ": " + ex.getMessage(), ex);
+            }
+        }
+        for (Entry e : entries) {
+            HeapFile hf = e.format == PageFormat.PAX ? new PaxFile(e.file, e.td, e.mapped)
+                : new HeapFile(e.file, e.td, e.mapped, e.format);
+            catalog.addTable(hf, e.name, e.pkey);
+            catalog.setTableStats(hf.getId(), e.stats);
+        }
+    }
+
+    private static Entry readEntry(ByteBuffer in, File base) {
+        Entry e = new Entry();
+        e.id = in.getInt();
+        e.name = readString(in);
+        e.file = base.toPath().resolve(readString(in)).normalize().toFile();
+        e.pkey = readString(in);
+        e.format = PageFormat.valueOf(readString(in));
+        e.mapped = (in.get() & MAPPED) != 0;
+        int numFields = in.getShort() & 0xffff;
+        Type[] types = new Type[numFields];
+        String[] names = new String[numFields];
+        for (int i = 0; i < numFields; i++) {
+            byte type = in.get();
+            if (type == INT_TYPE)
+                types[i] = Type.INT_TYPE;
+            else if (type == STRING_TYPE)
+                types[i] = Type.STRING_TYPE;
+            else
+                throw new IllegalArgumentException("unknown field type " + type);
+            names[i] = readString(in);
+        }
+        e.td = new TupleDesc(types, names);
+        int numPages = in.getInt();
+        long numTuples = in.getLong();
+        if (!in.hasRemaining()) {
+            // version 1: sizes only
+            e.stats = new TableStats(numPages, numTuples);
+            return e;
+        }
+        long changes = in.getLong();
+        ColumnStats[] columns = null;
+        if (in.get() != 0) {
+            columns = new ColumnStats[numFields];
+            for (int i = 0; i < numFields; i++)
+                columns[i] = ColumnStats.read(in, types[i]);
+        }
+        e.stats = new TableStats(numPages, numTuples, columns, changes);
+        return e;
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getShort() & 0xffff];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
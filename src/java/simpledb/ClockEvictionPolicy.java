@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of slots, each with a reference bit that is set on every hit. The hand
+ * sweeps the slots, clearing set bits, and stops at the first page whose
+ * bit is already clear.
+ * <p>
+ * Hits only set a volatile flag and never take the policy's monitor, so the
+ * common case does not serialize readers.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static final class Slot {
+        final PageId pid;
+        final int index;
+        volatile boolean referenced;
+
+        Slot(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    private final Slot[] ring;
+    private final ArrayDeque<Integer> freeSlots;
+    private final ConcurrentHashMap<PageId, Slot> slots = new ConcurrentHashMap<>();
+    private int hand = 0; // protected by this
+
+    /**
+     * @param capacity the number of pages in the pool
+     */
+    public ClockEvictionPolicy(int capacity) {
+        ring = new Slot[capacity];
+        freeSlots = new ArrayDeque<>(capacity);
+        for (int i = 0; i < capacity; i++)
+            freeSlots.add(i);
+    }
+
+    public void pageHit(PageId pid) {
+        Slot s = slots.get(pid);
+        if (s != null)
+            s.referenced = true;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (slots.containsKey(pid))
+            return;
+        Integer index = freeSlots.poll();
+        if (index == null)
+            throw new IllegalStateException("clock is full, cannot add page " + pid);
+        Slot s = new Slot(pid, index);
+        ring[index] = s;
+        slots.put(pid, s);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Slot s = slots.remove(pid);
+        if (s != null) {
+            ring[s.index] = null;
+            freeSlots.push(s.index);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        // two full turns: the first may only clear reference bits
+        for (int n = 0; n < 2 * ring.length; n++) {
+            Slot s = ring[hand];
+            hand = (hand + 1) % ring.length;
+            if (s == null || !evictable.test(s.pid))
+                continue;
+            if (s.referenced) {
+                s.referenced = false;
+                continue;
+            }
+            return s.pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnStats is what {@link TableStats} knows about the values of one
+ * column: its minimum and maximum, a {@link HyperLogLog} sketch of its
+ * distinct values and an {@link EquiDepthHistogram}. Together they give
+ * the selectivity of a predicate on the column.
+ * <p>
+ * Strings are compared, and kept in the histogram, by their first four
+ * characters; longer strings with the same prefix look the same.
+ *
+ * @see TableStats#estimateSelectivity
+ * @Threadsafe
+ */
+public final class ColumnStats {
+
+    /** Number of buckets of a histogram built by {@link TableStats#compute}. */
+    static final int NUM_BUCKETS = 100;
+
+    private final Type type;
+    private Field min;
+    private Field max;
+    private final HyperLogLog distinct;
+    private final double distinctScale;
+    private final EquiDepthHistogram histogram;
+
+    /**
+     * @param type the type of the column
+     * @param min the lowest value seen, or null if none
+     * @param max the highest value seen, or null if none
+     * @param distinct the distinct values seen
+     * @param distinctScale what to multiply the distinct values seen by to
+     *   estimate those of the whole column
+     * @param histogram the values seen, or null if none
+     */
+    ColumnStats(Type type, Field min, Field max, HyperLogLog distinct, double distinctScale,
+                EquiDepthHistogram histogram) {
+        this.type = type;
+        this.min = min;
+        this.max = max;
+        this.distinct = distinct;
+        this.distinctScale = distinctScale;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @return an int key for f that orders as f does: an int's value, or
+     *   the first four characters of a string
+     */
+    static int key(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        String s = ((StringField) f).getValue();
+        int key = 0;
+        for (int i = 0; i < 4; i++)
+            key = (key << 8) | (i < s.length() ? Math.min(s.charAt(i), 0xff) : 0);
+        return key ^ Integer.MIN_VALUE;
+    }
+
+    /** @return a 64-bit hash of f, for the distinct-value sketch */
+    static long hash(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        String s = ((StringField) f).getValue();
+        long h = 1125899906842597L;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + s.charAt(i);
+        return h;
+    }
+
+    private static boolean less(Field a, Field b) {
+        return a.compare(Predicate.Op.LESS_THAN, b);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** @return the lowest value of the column, or null if it has none */
+    public synchronized Field getMin() {
+        return min;
+    }
+
+    /** @return the highest value of the column, or null if it has none */
+    public synchronized Field getMax() {
+        return max;
+    }
+
+    /** @return the estimated number of distinct values of the column */
+    public synchronized long getDistinctCount() {
+        long d = Math.round(distinct.estimate() * distinctScale);
+        return histogram == null ? d : Math.min(d, histogram.getTotal());
+    }
+
+    /**
+     * @return the histogram of the column, or null if it has no values;
+     *   it changes as the table does
+     */
+    EquiDepthHistogram getHistogram() {
+        return histogram;
+    }
+
+    /** Count a value inserted into the column. */
+    synchronized void add(Field f) {
+        if (min == null || less(f, min))
+            min = f;
+        if (max == null || less(max, f))
+            max = f;
+        distinct.add(hash(f));
+        if (histogram != null)
+            histogram.add(key(f));
+    }
+
+    /**
+     * Count a value deleted from the column. The minimum, maximum and
+     * distinct values stay as they were.
+     */
+    synchronized void remove(Field f) {
+        if (histogram != null)
+            histogram.remove(key(f));
+    }
+
+    /**
+     * @return the estimated fraction of the column's values v for which
+     *   <code>v op operand</code> holds; 1.0 if nothing is known
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, Field operand) {
+        if (histogram == null || histogram.getTotal() == 0)
+            return 1.0;
+        int k = key(operand);
+        double eq = histogram.fractionEqual(k, getDistinctCount());
+        double sel;
+        switch (op) {
+        case EQUALS:
+            sel = eq;
+            break;
+        case NOT_EQUALS:
+            sel = 1 - eq;
+            break;
+        case LESS_THAN:
+            sel = histogram.fractionLess(k);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = histogram.fractionLess(k) + eq;
+            break;
+        case GREATER_THAN:
+            sel = 1 - histogram.fractionLess(k) - eq;
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = 1 - histogram.fractionLess(k);
+            break;
+        case LIKE:
+            // an int LIKE is an equality; a string LIKE matches substrings,
+            // which the histogram knows nothing about
+            sel = type == Type.INT_TYPE ? eq : 1.0;
+            break;
+        default:
+            sel = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
+    }
+
+    /** Write these statistics for {@link #read}. */
+    synchronized void write(DataOutputStream out) throws IOException {
+        writeField(out, min);
+        writeField(out, max);
+        out.writeDouble(distinctScale);
+        out.write(distinct.registers());
+        if (histogram == null) {
+            out.writeInt(0);
+        } else {
+            int[] upper = histogram.getUpper();
+            long[] counts = histogram.getCounts();
+            out.writeInt(upper.length);
+            out.writeInt(histogram.getMin());
+            for (int i = 0; i < upper.length; i++) {
+                out.writeInt(upper[i]);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    private void writeField(DataOutputStream out, Field f) throws IOException {
+        out.writeBoolean(f != null);
+        if (f instanceof IntField)
+            out.writeInt(((IntField) f).getValue());
+        else if (f != null)
+            CatalogFile.writeString(out, ((StringField) f).getValue());
+    }
+
+    /** Read statistics of a column of the given type written by {@link #write}. */
+    static ColumnStats read(ByteBuffer in, Type type) {
+        Field min = readField(in, type);
+        Field max = readField(in, type);
+        double distinctScale = in.getDouble();
+        byte[] registers = new byte[HyperLogLog.M];
+        in.get(registers);
+        int buckets = in.getInt();
+        EquiDepthHistogram histogram = null;
+        if (buckets > 0) {
+            int hmin = in.getInt();
+            int[] upper = new int[buckets];
+            long[] counts = new long[buckets];
+            for (int i = 0; i < buckets; i++) {
+                upper[i] = in.getInt();
+                counts[i] = in.getLong();
+            }
+            histogram = new EquiDepthHistogram(hmin, upper, counts);
+        }
+        return new ColumnStats(type, min, max, new HyperLogLog(registers), distinctScale, histogram);
+    }
+
+    private static Field readField(ByteBuffer in, Type type) {
+        if (in.get() == 0)
+            return null;
+        if (type == Type.INT_TYPE)
+            return new IntField(in.getInt());
+        return new StringField(CatalogFile.readString(in), Type.STRING_LEN);
+    }
+
+    public synchronized String toString() {
+        return type + "[" + min + ", " + max + ", ~" + getDistinctCount() + " distinct]";
+    }
+}
@@ -19,6 +19,29 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read count consecutive pages, starting with first, in as few I/O
+     * operations as possible. By default each page is read on its own with
+     * {@link #readPage}.
+     *
+     * @return the pages in order; fewer than count if the file ends first
+     * @throws IllegalArgumentException if the first page does not exist in
+     *   this file.
+     */
+    public default ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        pages.add(readPage(first));
+        for (int i = 1; i < count; i++) {
+            try {
+                pages.add(readPage(new HeapPageId(first.getTableId(), first.pageNumber() + i)));
+            } catch (IllegalArgumentException e) {
+                // the file ends here
+                break;
+            }
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +51,22 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Build a page of this file from an image produced by
+     * {@link Page#getPageData}, without reading anything from disk. The
+     * buffer pool uses this to bring back pages from its
+     * {@link VictimCache}.
+     *
+     * @param id the id of the page
+     * @param data the page image
+     * @throws IOException if the image cannot be decoded
+     * @throws UnsupportedOperationException if the file cannot build pages
+     *   from images, which is the default
+     */
+    public default Page createPage(PageId id, byte[] data) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot build pages from images");
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
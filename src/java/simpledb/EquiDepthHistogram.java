@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * EquiDepthHistogram describes how the values of a column are spread, as
+ * buckets that each held about the same number of values when the
+ * histogram was built. Narrow buckets are where values are dense, so
+ * estimates are good where most of the data is.
+ * <p>
+ * Values are int keys; {@link ColumnStats#key} maps strings to keys in the
+ * same order. Bucket i holds the keys from just above the upper bound of
+ * bucket i - 1 (or from the minimum, for bucket 0) up to its own upper
+ * bound, and within a bucket keys are assumed to be spread evenly. Inserts
+ * and deletes change the counts of the buckets, and inserts outside the
+ * range widen the first or last bucket, but the bounds stay where they
+ * were built.
+ */
+public final class EquiDepthHistogram {
+
+    private int min;
+    private final int[] upper;
+    private final long[] counts;
+    private long total;
+
+    /**
+     * @param min the lowest key
+     * @param upper the highest key of each bucket, ascending
+     * @param counts the number of values in each bucket
+     */
+    EquiDepthHistogram(int min, int[] upper, long[] counts) {
+        if (upper.length == 0 || upper.length != counts.length || min > upper[0])
+            throw new IllegalArgumentException("bad histogram buckets");
+        for (int i = 1; i < upper.length; i++) {
+            if (upper[i] <= upper[i - 1])
+                throw new IllegalArgumentException("histogram bounds not ascending");
+        }
+        this.min = min;
+        this.upper = upper;
+        this.counts = counts;
+        for (long c : counts)
+            total += c;
+    }
+
+    /**
+     * Build a histogram from a sample of keys.
+     *
+     * @param keys the sampled keys, sorted ascending; at least one
+     * @param n the number of keys used from keys
+     * @param numBuckets the most buckets to use
+     * @param scale the number of values each sampled key stands for
+     */
+    static EquiDepthHistogram fromSample(int[] keys, int n, int numBuckets, double scale) {
+        int b = Math.min(numBuckets, n);
+        int[] upper = new int[b];
+        long[] counts = new long[b];
+        int buckets = 0;
+        int start = 0;
+        for (int i = 0; i < b; i++) {
+            int end = (int) ((long) (i + 1) * n / b);
+            if (end == start)
+                continue;
+            // a run of equal keys stays in one bucket
+            if (buckets > 0 && keys[end - 1] == upper[buckets - 1]) {
+                counts[buckets - 1] += Math.round((end - start) * scale);
+            } else {
+                upper[buckets] = keys[end - 1];
+                counts[buckets] = Math.round((end - start) * scale);
+                buckets++;
+            }
+            start = end;
+        }
+        return new EquiDepthHistogram(keys[0], Arrays.copyOf(upper, buckets), Arrays.copyOf(counts, buckets));
+    }
+
+    /** @return the bucket key falls in, or the nearest one */
+    private int bucket(int key) {
+        int b = Arrays.binarySearch(upper, key);
+        if (b < 0)
+            b = -b - 1;
+        return Math.min(b, upper.length - 1);
+    }
+
+    /** @return the lowest key of bucket b */
+    private long low(int b) {
+        return b == 0 ? min : (long) upper[b - 1] + 1;
+    }
+
+    /** Count one more value. */
+    void add(int key) {
+        if (key < min)
+            min = key;
+        if (key > upper[upper.length - 1])
+            upper[upper.length - 1] = key;
+        counts[bucket(key)]++;
+        total++;
+    }
+
+    /** Count one value less. */
+    void remove(int key) {
+        int b = bucket(key);
+        if (counts[b] > 0) {
+            counts[b]--;
+            total--;
+        }
+    }
+
+    /** @return the estimated fraction of values less than key */
+    public double fractionLess(int key) {
+        if (total == 0 || key <= min)
+            return 0;
+        if (key > upper[upper.length - 1])
+            return 1;
+        int b = bucket(key);
+        long below = 0;
+        for (int i = 0; i < b; i++)
+            below += counts[i];
+        long low = low(b);
+        double part = counts[b] * (double) (key - low) / (upper[b] - low + 1);
+        return (below + part) / total;
+    }
+
+    /**
+     * @param distinct the estimated number of distinct keys of the column
+     * @return the estimated fraction of values equal to key
+     */
+    public double fractionEqual(int key, long distinct) {
+        if (total == 0 || key < min || key > upper[upper.length - 1])
+            return 0;
+        int b = bucket(key);
+        double inBucket = (double) counts[b] / total;
+        // the bucket holds about its share of the distinct keys, and no
+        // more than it has room for
+        double keys = Math.min(upper[b] - low(b) + 1, Math.max(1.0, distinct * inBucket));
+        return inBucket / keys;
+    }
+
+    /** @return the number of values counted */
+    public long getTotal() {
+        return total;
+    }
+
+    /** @return the number of buckets */
+    public int numBuckets() {
+        return upper.length;
+    }
+
+    int getMin() {
+        return min;
+    }
+
+    int[] getUpper() {
+        return upper;
+    }
+
+    long[] getCounts() {
+        return counts;
+    }
+
+    public String toString() {
+        return "histogram[" + min + ", " + Arrays.toString(upper) + ", " + Arrays.toString(counts) + "]";
+    }
+}
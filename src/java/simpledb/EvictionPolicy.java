@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs room for a page that is being read from disk.
+ * <p>
+ * The BufferPool reports every hit, every page it adds and every page it
+ * evicts or discards; the policy only keeps whatever bookkeeping it needs to answer
+ * {@link #chooseVictim}. A policy is created for a single pool and sized
+ * with that pool's capacity.
+ *
+ * @see BufferPool
+ * @Threadsafe
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a requested page was already resident in the pool.
+     *
+     * @param pid the page that was hit
+     */
+    public void pageHit(PageId pid);
+
+    /**
+     * Called after a page has been read from disk and added to the pool.
+     *
+     * @param pid the page that was added
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called after a page chosen as a victim has left the pool.
+     *
+     * @param pid the page that was evicted
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Called after a page has been thrown out of the pool without being
+     * chosen as a victim, e.g. because its transaction rolled back or the
+     * page was freed. Policies that remember evicted pages should forget
+     * this one instead, as its leaving says nothing about how it is used.
+     * By default the page is treated like an evicted one.
+     *
+     * @param pid the page that was discarded
+     */
+    public default void pageDiscarded(PageId pid) {
+        pageRemoved(pid);
+    }
+
+    /**
+     * Choose a resident page to evict. The page stays known to the policy
+     * until {@link #pageRemoved} is called for it.
+     *
+     * @param evictable tells whether a page may be evicted right now; pages
+     *   it rejects (e.g. pinned ones) must be skipped. It never blocks.
+     * @return the page to evict, or null if no resident page can be evicted
+     */
+    public PageId chooseVictim(java.util.function.Predicate<PageId> evictable);
+
+    /**
+     * Creates one of the built-in policies by name.
+     *
+     * @param name one of "clock", "lru-k", "2q" or "arc" (case insensitive)
+     * @param capacity the number of pages in the pool the policy is used by
+     * @throws IllegalArgumentException if the name is not a known policy
+     */
+    public static EvictionPolicy create(String name, int capacity) {
+        switch (name.trim().toLowerCase()) {
+        case "clock":
+            return new ClockEvictionPolicy(capacity);
+        case "lru-k":
+        case "lruk":
+            return new LruKEvictionPolicy(capacity, LruKEvictionPolicy.DEFAULT_K);
+        case "2q":
+            return new TwoQueueEvictionPolicy(capacity);
+        case "arc":
+            return new ArcEvictionPolicy(capacity);
+        default:
+            throw new IllegalArgumentException("unknown eviction policy " + name);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Frame is one slot of the BufferPool's page table. It is created as soon
+ * as a page is first requested, before the page has been read, so that
+ * every other thread asking for the same page finds the frame and waits for
+ * that single read instead of issuing its own.
+ * <p>
+ * A frame also counts the number of threads that currently use its page.
+ * A pinned frame is never evicted.
+ * <p>
+ * Committing a transaction logs its pages, forces the log and then writes
+ * the pages. Between the force and the write, or after a write that
+ * failed, a frame holds committed changes that are not on disk yet, so it
+ * also remembers which committed transaction made them; the background
+ * writer writes such pages again.
+ *
+ * @see PageTable
+ */
+final class Frame {
+
+    final PageId pid;
+    /** pid packed into a long, the frame's key in the page table */
+    final long key;
+    private volatile Page page;
+    private volatile Exception error;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final AtomicInteger pinCount = new AtomicInteger(0);
+    // the committed transaction whose changes have yet to be written, or null
+    volatile TransactionId committedBy;
+
+    Frame(PageId pid) {
+        this.pid = pid;
+        this.key = pid.pack();
+    }
+
+    /**
+     * @return true for exactly one caller, which must then read the page and
+     *   call {@link #loaded} or {@link #failed}
+     */
+    boolean claimLoad() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /** Publish the page read by the thread that claimed the load. */
+    void loaded(Page p) {
+        page = p;
+        loaded.countDown();
+    }
+
+    /** Wake up the waiters of a load that did not succeed. */
+    void failed(Exception e) {
+        error = e;
+        loaded.countDown();
+    }
+
+    /**
+     * Wait for the page of this frame to be read.
+     *
+     * @throws DbException if the read failed
+     */
+    Page awaitPage() throws DbException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (error != null)
+            throw new DbException("could not read page " + pid + ": " + error.getMessage());
+        return page;
+    }
+
+    /** @return the page, or null if it has not been read yet */
+    Page getPage() {
+        return page;
+    }
+
+    boolean isLoaded() {
+        return page != null;
+    }
+
+    int pin() {
+        return pinCount.incrementAndGet();
+    }
+
+    int unpin() {
+        int pins = pinCount.decrementAndGet();
+        if (pins < 0)
+            throw new IllegalStateException("page " + pid + " unpinned more often than pinned");
+        return pins;
+    }
+
+    int getPinCount() {
+        return pinCount.get();
+    }
+}
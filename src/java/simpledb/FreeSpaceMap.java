@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records roughly how much room each page of a HeapFile has
+ * left, in one byte per page, so that an insert can go straight to a page
+ * with a free slot instead of reading pages until it finds one. Pages with
+ * any room at all are also kept in a bit set, which inserts search from
+ * where the last one found room; filling a table is therefore linear in
+ * the number of tuples.
+ * <p>
+ * Free space is counted in the unit of the file's {@link PageFormat}:
+ * slots, or bytes. An insert asks for a page whose level guarantees room
+ * for its tuple, so that a page with a little room left is not offered to
+ * a tuple that is too big for it.
+ * <p>
+ * The map is only a hint. An insert checks the page it is sent to, and
+ * reports back if the page turned out to be full. The map is kept in a side
+ * file next to the heap file and is rebuilt from the pages if that file is
+ * missing or does not match the heap file's length.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    /** The level of a page with every slot free. */
+    static final int MAX_LEVEL = 255;
+
+    /** First int of a free-space map file. */
+    private static final int MAGIC = 0x53444246;
+
+    private byte[] levels;
+    private int numPages;
+    private final BitSet hasRoom = new BitSet();
+    private int cursor = 0;
+
+    /**
+     * @param numPages the number of pages of the file, all assumed full
+     *   until {@link #update} says otherwise
+     */
+    FreeSpaceMap(int numPages) {
+        this.levels = new byte[Math.max(16, numPages)];
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the level, 0 (full) to MAX_LEVEL (empty), of a page with free
+     *   of capacity slots free. Any free slot gives a level of at least 1.
+     */
+    static int level(int free, int capacity) {
+        if (free <= 0 || capacity <= 0)
+            return 0;
+        return Math.max(1, free * MAX_LEVEL / capacity);
+    }
+
+    /**
+     * @return the lowest level at which a page is sure to have need of
+     *   capacity free, except at level 1, which any free space gives
+     */
+    static int neededLevel(int need, int capacity) {
+        if (need <= 0 || capacity <= 0)
+            return 1;
+        long level = ((long) need * MAX_LEVEL + capacity - 1) / capacity;
+        return (int) Math.max(1, Math.min(MAX_LEVEL, level));
+    }
+
+    /** Record that page pgNo has free of capacity free. */
+    synchronized void update(int pgNo, int free, int capacity) {
+        if (pgNo >= levels.length)
+            levels = Arrays.copyOf(levels, Math.max(pgNo + 1, 2 * levels.length));
+        numPages = Math.max(numPages, pgNo + 1);
+        int level = level(free, capacity);
+        levels[pgNo] = (byte) level;
+        hasRoom.set(pgNo, level > 0);
+    }
+
+    /** @return the level of page pgNo, 0 if the map does not know it */
+    synchronized int getLevel(int pgNo) {
+        return pgNo < numPages ? levels[pgNo] & 0xff : 0;
+    }
+
+    /**
+     * @return a page that had room when last looked at, or -1 if there is
+     *   none. Consecutive calls keep returning the same page while it has
+     *   room, so a bulk insert fills pages one after another.
+     */
+    synchronized int findPageWithRoom() {
+        return findPageWithRoom(1);
+    }
+
+    /**
+     * @return a page that was at least at the given level when last looked
+     *   at, or -1 if there is none
+     * @see #findPageWithRoom()
+     */
+    synchronized int findPageWithRoom(int level) {
+        for (int pgNo = hasRoom.nextSetBit(cursor); pgNo >= 0; pgNo = hasRoom.nextSetBit(pgNo + 1)) {
+            if ((levels[pgNo] & 0xff) >= level) {
+                cursor = pgNo;
+                return pgNo;
+            }
+        }
+        for (int pgNo = hasRoom.nextSetBit(0); pgNo >= 0 && pgNo < cursor; pgNo = hasRoom.nextSetBit(pgNo + 1)) {
+            if ((levels[pgNo] & 0xff) >= level) {
+                cursor = pgNo;
+                return pgNo;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record that page pgNo turned out to have too little room for a tuple
+     * that needed the given level, so that it is not offered for such a
+     * tuple again until {@link #update} says it has more.
+     */
+    synchronized void lacksRoom(int pgNo, int level) {
+        if (pgNo < numPages && (levels[pgNo] & 0xff) >= level) {
+            levels[pgNo] = (byte) (level - 1);
+            hasRoom.set(pgNo, level > 1);
+        }
+    }
+
+    /** @return the number of pages the map knows about */
+    synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Write the map to f, through a temporary file renamed over it.
+     */
+    synchronized void save(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(numPages);
+            out.write(levels, 0, numPages);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a map saved by {@link #save}.
+     *
+     * @param numPages the number of pages the heap file has now
+     * @return the map, or null if f is missing, unreadable, or was saved
+     *   for a different number of pages
+     */
+    static FreeSpaceMap load(File f, int numPages) {
+        if (!f.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != numPages)
+                    return null;
+                FreeSpaceMap fsm = new FreeSpaceMap(numPages);
+                in.readFully(fsm.levels, 0, numPages);
+                for (int i = 0; i < numPages; i++)
+                    fsm.hasRoom.set(i, fsm.levels[i] != 0);
+                return fsm;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
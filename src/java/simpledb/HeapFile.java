@@ -1,7 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -9,6 +15,23 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional I/O on one FileChannel that
+ * the HeapFile keeps open, so concurrent misses neither reopen the file nor
+ * share a file pointer.
+ * <p>
+ * A HeapFile of a read-mostly table can instead be memory-mapped, in
+ * segments of {@link #MAP_SEGMENT_BYTES}. Pages are then decoded straight
+ * from the mapped segments, without a read system call. Segments past the
+ * end of the file as it was mapped are mapped again once the file grows.
+ * <p>
+ * Pages are HeapPages unless the HeapFile is given another
+ * {@link PageFormat}, such as the slotted format, which stores strings in
+ * as many bytes as they have characters.
+ * <p>
+ * Inserts find a page with a free slot through a {@link FreeSpaceMap},
+ * which is kept in a side file named after the heap file with ".fsm"
+ * appended, and saved when the HeapFile is closed.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -16,9 +39,29 @@ import java.util.*;
 public class HeapFile implements DbFile {
 
     private final File f;
+    private final int id;
 
     private final TupleDesc td;
 
+    /** Size of the segments a memory-mapped HeapFile is mapped in. */
+    public static final int MAP_SEGMENT_BYTES = 64 << 20;
+
+    private final boolean mapped;
+    private final PageFormat format;
+    /** the mapped segments; the last one may be shorter than the others */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /** the page size the segments were cut for */
+    private volatile int segmentPageSize;
+
+    /** the number of pages, or -1 until we first need it */
+    private final AtomicInteger numPages = new AtomicInteger(-1);
+
+    /** where inserts look for room; built or loaded on the first insert */
+    private FreeSpaceMap freeSpace; // protected by this
+
+    /** opened on first use, and again if it was closed under us */
+    private volatile FileChannel channel;
+
     private static final class HeapFileIterator implements DbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId tid;
@@ -28,14 +71,83 @@ public class HeapFile implements DbFile {
          */
         private Iterator<Tuple> tupleIterator;
         private int index;
+        /**
+         * the page tupleIterator walks, pinned in the buffer pool until we move on
+         */
+        private TuplePage page;
+        /**
+         * private frames for scans of files larger than the buffer pool
+         */
+        private ScanRing ring;
+        /**
+         * pages [0, readAhead) have been asked for, or read ahead
+         */
+        private int readAhead;
+        private int numPages;
+        /**
+         * the fields to return, and their schema, or null for all of them
+         */
+        private final int[] fields;
+        private final TupleDesc projected;
 
         public HeapFileIterator(HeapFile file,TransactionId tid){
+            this(file, tid, null);
+        }
+
+        public HeapFileIterator(HeapFile file, TransactionId tid, int[] fields) {
             this.heapFile = file;
             this.tid = tid;
+            this.fields = fields;
+            this.projected = fields == null ? null : project(file.getTupleDesc(), fields);
+        }
+
+        private static TupleDesc project(TupleDesc td, int[] fields) {
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int j = 0; j < fields.length; j++) {
+                types[j] = td.getFieldType(fields[j]);
+                names[j] = td.getFieldName(fields[j]);
+            }
+            return new TupleDesc(types, names);
+        }
+
+        /** @return an iterator over the tuples of page, cut down to fields */
+        private Iterator<Tuple> pageIterator(TuplePage page) {
+            if (fields == null) {
+                return page.iterator();
+            }
+            if (page instanceof HeapPage) {
+                return ((HeapPage) page).iterator(fields, projected);
+            }
+            // other formats decode whole tuples anyway
+            final Iterator<Tuple> it = page.iterator();
+            return new Iterator<Tuple>() {
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public Tuple next() {
+                    Tuple t = it.next();
+                    Tuple cut = new Tuple(projected);
+                    cut.setRecordId(t.getRecordId());
+                    for (int j = 0; j < fields.length; j++) {
+                        cut.setField(j, t.getField(fields[j]));
+                    }
+                    return cut;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            BufferPool bufferPool = Database.getBufferPool();
+            numPages = heapFile.numPages();
+            ring = bufferPool.isLargeScan(numPages) ? bufferPool.newScanRing() : null;
+            readAhead = 0;
             index = 0;
             tupleIterator = getTupleIterator(index);
         }
@@ -44,8 +156,11 @@ public class HeapFile implements DbFile {
             // if the pageNumber is legal
             if(pageNumber >= 0 && pageNumber < heapFile.numPages()){
                 HeapPageId pid = new HeapPageId(heapFile.getId(),pageNumber);
-                HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                readAhead(pageNumber);
+                TuplePage next = (TuplePage)Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, ring);
+                unpin();
+                page = next;
+                return pageIterator(page);
             }else{
                 throw new DbException(String.format("heapFile %d  does not exist in page[%d]!", pageNumber,heapFile.getId()));
             }
@@ -67,6 +182,7 @@ public class HeapFile implements DbFile {
                     tupleIterator = getTupleIterator(index);
                     return tupleIterator.hasNext();
                 }else{
+                    unpin();
                     return false;
                 }
             }
@@ -89,6 +205,35 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             tupleIterator = null;
+            unpin();
+            if (ring != null) {
+                ring.clear();
+                ring = null;
+            }
+        }
+
+        /**
+         * we read pages strictly in order, so keep the next few pages after
+         * pageNumber on their way in, a few at a time, while we work on it
+         */
+        private void readAhead(int pageNumber) {
+            readAhead = Math.max(readAhead, pageNumber + 1);
+            // top the window up only once half of it is used, so that each
+            // read ahead is a few pages long
+            if (readAhead - pageNumber > BufferPool.READ_AHEAD_PAGES / 2)
+                return;
+            int end = Math.min(numPages, pageNumber + 1 + BufferPool.READ_AHEAD_PAGES);
+            if (readAhead < end) {
+                HeapPageId pid = new HeapPageId(heapFile.getId(), readAhead);
+                readAhead += Database.getBufferPool().prefetch(pid, end - readAhead, ring);
+            }
+        }
+
+        private void unpin() {
+            if (page != null) {
+                Database.getBufferPool().unpinPage(page);
+                page = null;
+            }
         }
 
     }
@@ -104,9 +249,55 @@ public class HeapFile implements DbFile {
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, which is
+     * optionally read through a memory mapping.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            true to read pages from a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, PageFormat.HEAP);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the given format.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            true to read pages from a memory mapping of the file
+     * @param format
+     *            the format of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, PageFormat format) {
         this.f = f;
+        this.id = Catalog.tableIdFor(f);
         this.td = td;
+        this.mapped = mapped;
+        this.format = format;
+    }
+
+    /**
+     * @return the format of the pages of this file
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
 
+    /**
+     * @return true if pages are read from a memory mapping of the file
+     */
+    public boolean isMapped() {
+        return mapped;
     }
 
     /**
@@ -120,17 +311,16 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * Returns an ID uniquely identifying this HeapFile. The id is handed out
+     * by {@link Catalog#tableIdFor} for the underlying file, so every
+     * HeapFile over the same file has the same id, and no two files share
+     * one.
      * 
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
         // some code goes here
-        return f.getAbsolutePath().hashCode();
+        return id;
     }
 
     /**
@@ -143,48 +333,228 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * @return the channel shared by all readers and writers of this file.
+     *   A channel is closed for everybody when a thread using it is
+     *   interrupted, in which case we open a new one.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    try {
+                        ch = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    } catch (AccessDeniedException e) {
+                        ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                    }
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Close the channel to the file. It is opened again if the file is
+     * used after this.
+     */
+    public synchronized void close() throws IOException {
+        if (freeSpace != null) {
+            freeSpace.save(freeSpaceFile());
+            freeSpace = null;
+        }
+        // mappings stay valid until they are collected
+        segments = new MappedByteBuffer[0];
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        return read(pid);
+    }
+
+    /** Read one page; readPages uses this rather than the overridable readPage. */
+    private Page read(PageId pid) {
         int tid = pid.getTableId();
         int pgNo = pid.pageNumber();
-        int offset = pgNo*BufferPool.getPageSize();
-        RandomAccessFile raf = null;
-        try{
-            raf = new RandomAccessFile(f,"r");
-            // if the space needed for the table is larger than the heapFile we're accessing
-            if((long) (pgNo + 1) *BufferPool.getPageSize() > raf.length()){
-                raf.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid",tid,pgNo));
-            }
-            byte[] bytes = new byte[BufferPool.getPageSize()];
-            // find the place to read
-            raf.seek(offset);
-            int read_a_page = raf.read(bytes, 0, BufferPool.getPageSize());
-            if (read_a_page != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes not equal to BufferPool.getPageSize() ",tid,pgNo,read_a_page ));
+        int pageSize = BufferPool.getPageSize();
+        try {
+            if (mapped) {
+                return readMappedPage(pid, pageSize);
+            }
+            // the page keeps the array it is built from
+            byte[] bytes = new byte[pageSize];
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            long position = (long) pgNo * pageSize;
+            FileChannel ch = channel();
+            while (pgNo >= 0 && buf.hasRemaining()) {
+                int n = ch.read(buf, position + buf.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            // the page lies (partly) past the end of the file
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tid, pgNo));
             }
             HeapPageId id = new HeapPageId(pid.getTableId(),pid.pageNumber());
-            return new HeapPage(id,bytes);
-
-        }catch (IOException e){
+            // somebody else may have appended to the file
+            grewTo(pgNo + 1);
+            return format.createPage(id, ByteBuffer.wrap(bytes), td);
+        } catch (IOException e) {
             e.printStackTrace();
-        }finally {
-            try{
-                if(raf != null){
-                    raf.close();
+        }
+        throw new IllegalArgumentException(String.format("table %d  page %d is invalid", tid,pgNo));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> readPages(PageId first, int count) {
+        int tid = first.getTableId();
+        int pgNo = first.pageNumber();
+        int pageSize = BufferPool.getPageSize();
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        if (mapped || count == 1) {
+            // a mapped page costs no system call anyway
+            pages.add(read(first));
+            for (int i = 1; i < count && pgNo + i < numPages(); i++) {
+                pages.add(read(new HeapPageId(tid, pgNo + i)));
+            }
+            return pages;
+        }
+        byte[] bytes = new byte[count * pageSize];
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            long position = (long) pgNo * pageSize;
+            FileChannel ch = channel();
+            while (pgNo >= 0 && buf.hasRemaining()) {
+                int n = ch.read(buf, position + buf.position());
+                if (n < 0) {
+                    break;
                 }
-            }catch (Exception e){
-                e.printStackTrace();
             }
+            int read = buf.position() / pageSize;
+            if (read == 0) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tid, pgNo));
+            }
+            grewTo(pgNo + read);
+            for (int i = 0; i < read; i++) {
+                // the pages share the buffer, which none of them writes to
+                ByteBuffer data = ByteBuffer.wrap(bytes, i * pageSize, pageSize);
+                pages.add(format.createPage(new HeapPageId(tid, pgNo + i), data, td));
+            }
+            return pages;
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         throw new IllegalArgumentException(String.format("table %d  page %d is invalid", tid,pgNo));
     }
 
+    /**
+     * Decode a page from the segment that maps it, mapping the segment (or
+     * a longer version of it) first if need be. The page is built on a
+     * read-only slice of the mapping itself, without copying it; pages copy
+     * their image before they first change it.
+     */
+    private Page readMappedPage(PageId pid, int pageSize) throws IOException {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo));
+        }
+        ByteBuffer segment = segmentFor(pgNo, pageSize);
+        int segmentPages = Math.max(1, MAP_SEGMENT_BYTES / pageSize);
+        ByteBuffer view = segment.duplicate();
+        view.position((pgNo % segmentPages) * pageSize);
+        view.limit(view.position() + pageSize);
+        grewTo(pgNo + 1);
+        return format.createPage(new HeapPageId(pid.getTableId(), pgNo), view.slice().asReadOnlyBuffer(), td);
+    }
+
+    /**
+     * @return the segment holding page pgNo
+     * @throws IllegalArgumentException if the page is past the end of the file
+     */
+    private ByteBuffer segmentFor(int pgNo, int pageSize) throws IOException {
+        int segmentPages = Math.max(1, MAP_SEGMENT_BYTES / pageSize);
+        int segNo = pgNo / segmentPages;
+        int end = (pgNo % segmentPages + 1) * pageSize;
+        MappedByteBuffer[] segs = segments;
+        if (segmentPageSize == pageSize && segNo < segs.length && segs[segNo].capacity() >= end) {
+            return segs[segNo];
+        }
+        synchronized (this) {
+            if (segmentPageSize != pageSize) {
+                segments = new MappedByteBuffer[0];
+                segmentPageSize = pageSize;
+            }
+            segs = segments;
+            if (segNo < segs.length && segs[segNo].capacity() >= end) {
+                return segs[segNo];
+            }
+            // the file grew since we last mapped it: map the segments up to
+            // this one again, at their current length
+            FileChannel ch = channel();
+            long size = ch.size();
+            long segmentBytes = (long) segmentPages * pageSize;
+            long start = segNo * segmentBytes;
+            if (start + end > size) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", getId(), pgNo));
+            }
+            MappedByteBuffer[] grown = Arrays.copyOf(segs, Math.max(segs.length, segNo + 1));
+            for (int i = 0; i <= segNo; i++) {
+                long from = i * segmentBytes;
+                long len = Math.min(segmentBytes, size - from);
+                if (grown[i] == null || grown[i].capacity() < len) {
+                    grown[i] = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+                }
+            }
+            segments = grown;
+            return grown[segNo];
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        return format.createPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), ByteBuffer.wrap(data), td);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        int pgNo = page.getId().pageNumber();
+        if (!f.exists()) {
+            f.createNewFile();
+        }
+        ByteBuffer buf = page instanceof TuplePage ? ((TuplePage) page).getPageBuffer()
+            : ByteBuffer.wrap(page.getPageData());
+        long position = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+        grewTo(pgNo + 1);
+    }
+
+    /** Raise the cached page count to at least pages, if it is known. */
+    private void grewTo(int pages) {
+        int n = numPages.get();
+        while (n >= 0 && n < pages && !numPages.compareAndSet(n, pages)) {
+            n = numPages.get();
+        }
+    }
+
+    /**
+     * Forget the cached page count, so that the next call to
+     * {@link #numPages} asks the file system again. Only needed if the file
+     * was changed behind this HeapFile's back.
+     */
+    public void refreshNumPages() {
+        numPages.set(-1);
     }
 
     /**
@@ -192,26 +562,117 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        // count the # of pages in bufferpool by length of file
-        System.out.println(String.format("file length :「 %d 」,BufferPool PageSize :「 %d 」 ",getFile().length(),BufferPool.getPageSize()));
-        return (int) Math.floor(getFile().length() * 1.0 / BufferPool.getPageSize());
+        // count the # of pages by length of file, once; writePage keeps
+        // the count up to date after that
+        int n = numPages.get();
+        if (n < 0) {
+            n = (int) (getFile().length() / BufferPool.getPageSize());
+            if (!numPages.compareAndSet(-1, n)) {
+                n = numPages.get();
+            }
+        }
+        return n;
+
+    }
+
+    /** @return the side file the free-space map is saved in */
+    private File freeSpaceFile() {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * @return the free-space map, loaded from its side file or, if that is
+     *   missing or out of date, rebuilt by reading every page
+     */
+    synchronized FreeSpaceMap freeSpaceMap() {
+        if (freeSpace != null) {
+            return freeSpace;
+        }
+        int n = numPages();
+        FreeSpaceMap fsm = FreeSpaceMap.load(freeSpaceFile(), n);
+        if (fsm == null) {
+            fsm = new FreeSpaceMap(n);
+            int chunk = BufferPool.READ_AHEAD_PAGES;
+            for (int pgNo = 0; pgNo < n; pgNo += chunk) {
+                // straight from the file: the map only needs to be roughly right
+                for (Page p : readPages(new HeapPageId(getId(), pgNo), Math.min(chunk, n - pgNo))) {
+                    TuplePage page = (TuplePage) p;
+                    fsm.update(page.getId().pageNumber(), page.getFreeSpace(), page.getCapacity());
+                }
+            }
+        }
+        freeSpace = fsm;
+        return fsm;
+    }
 
+    /**
+     * Append an empty page to the file.
+     *
+     * @return the id of the new page
+     */
+    private synchronized HeapPageId appendPage() throws IOException {
+        HeapPageId pid = new HeapPageId(getId(), numPages());
+        TuplePage page = format.createPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData()), td);
+        writePage(page);
+        freeSpaceMap().update(pid.pageNumber(), page.getFreeSpace(), page.getCapacity());
+        return pid;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        BufferPool bufferPool = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        int need = format.spaceFor(td, t);
+        int capacity = format.capacity(td);
+        if (need > capacity) {
+            throw new DbException("tuple does not fit on a page of table " + getId());
+        }
+        int level = FreeSpaceMap.neededLevel(need, capacity);
+        while (true) {
+            int pgNo = fsm.findPageWithRoom(level);
+            HeapPageId pid = pgNo < 0 ? appendPage() : new HeapPageId(getId(), pgNo);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            // pinned, so that the page cannot be evicted before it is dirty
+            TuplePage page = (TuplePage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE, null);
+            try {
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    fsm.update(pid.pageNumber(), page.getFreeSpace(), page.getCapacity());
+                    return new ArrayList<Page>(Collections.singletonList(page));
+                }
+                // the map was out of date, or somebody filled the page first
+                fsm.update(pid.pageNumber(), page.getFreeSpace(), page.getCapacity());
+                fsm.lacksRoom(pid.pageNumber(), level);
+            } finally {
+                bufferPool.unpinPage(page);
+            }
+            if (!held) {
+                bufferPool.releasePage(tid, pid);
+            }
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not in table " + getId());
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        TuplePage page = (TuplePage) bufferPool.pinPage(tid, rid.getPageId(), Permissions.READ_WRITE, null);
+        try {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            freeSpaceMap().update(page.getId().pageNumber(), page.getFreeSpace(), page.getCapacity());
+        } finally {
+            bufferPool.unpinPage(page);
+        }
+        return new ArrayList<Page>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
@@ -220,5 +681,21 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this,tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file, each cut down to
+     * the given fields, in the given order. Fields that are not asked for
+     * are not decoded, and in a {@link PaxFile} not even read.
+     *
+     * @param fields the numbers of the fields to return
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        for (int field : fields) {
+            if (field < 0 || field >= td.numFields()) {
+                throw new IllegalArgumentException("no field " + field + " in " + td);
+            }
+        }
+        return new HeapFileIterator(this, tid, fields.clone());
+    }
+
 }
 
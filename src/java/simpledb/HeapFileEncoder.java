@@ -1,14 +1,17 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Pages can also be written in another {@link PageFormat}.
  */
 
 public class HeapFileEncoder {
@@ -223,4 +226,76 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file with
+   * pages of the given format. The input is as for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @param format the format of the pages to write; pages of a format
+   *        other than HEAP must be BufferPool.getPageSize() bytes
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageFormat format)
+      throws IOException {
+      if (format == PageFormat.HEAP) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+      if (npagebytes != BufferPool.getPageSize()) {
+          throw new IllegalArgumentException(format + " pages must be " + BufferPool.getPageSize() + " bytes");
+      }
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      try {
+          int npages = 0;
+          TuplePage page = emptyPage(format, td, npages);
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = separator.split(line, -1);
+              if (values.length != numFields)
+                  throw new IOException("BAD LINE : " + line);
+              Tuple t = new Tuple(td);
+              for (int i = 0; i < numFields; i++) {
+                  String v = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE) {
+                      try {
+                          t.setField(i, new IntField(Integer.parseInt(v)));
+                      } catch (NumberFormatException e) {
+                          throw new IOException("BAD LINE : " + line);
+                      }
+                  } else {
+                      t.setField(i, new StringField(v, Type.STRING_LEN));
+                  }
+              }
+              if (!page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = emptyPage(format, td, npages);
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("BAD LINE : " + line + " (" + e.getMessage() + ")");
+              }
+          }
+          // like convert, write the last page only if it has tuples, or if
+          // the file would be empty otherwise
+          if (npages == 0 || page.getFreeSpace() < page.getCapacity())
+              os.write(page.getPageData());
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
+
+  private static TuplePage emptyPage(PageFormat format, TupleDesc td, int pgNo) throws IOException {
+      return format.createPage(new HeapPageId(0, pgNo), ByteBuffer.wrap(HeapPage.createEmptyPageData()), td);
+  }
 }
@@ -2,25 +2,50 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the image it was read from and decodes tuples only when
+ * they are asked for, so a scan that reads one column, or that filters
+ * most rows out, does not build a Tuple for every row. Single fields can be
+ * read with {@link #getField} and {@link #getInt}, and {@link #filter}
+ * evaluates a predicate on an integer field without creating any objects.
+ * <p>
+ * The image is one ByteBuffer, which may be a slice of a larger buffer that
+ * several pages were read into together. The before image is copy on
+ * write: until the page is first changed after {@link #setBeforeImage}, the
+ * current image is the before image, and the first change moves the page
+ * onto a private copy. A page that is only read is therefore never copied.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    final int tupleSize;
+    /** offset of each field from the start of its tuple */
+    final int[] fieldOffsets;
+    /**
+     * the page image, header first; inserts and deletes write through to
+     * it once the page has its own copy
+     */
+    private ByteBuffer data; // protected by oldDataLock when replaced
+    /**
+     * the image as of the last setBeforeImage, if the page has changed
+     * since; while it is null, data is the before image and may be shared
+     */
+    private ByteBuffer oldData; // protected by oldDataLock
+    private final Object oldDataLock = new Object();
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -34,32 +59,45 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps data rather than a copy of it, and never writes to
+     * it, so the caller must not change or reuse the array afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, which the page
+     * keeps and never writes to.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /** Create a HeapPage of a table with the given schema. */
+    HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        if (data.remaining() != BufferPool.getPageSize()) {
+            throw new IOException("page image is " + data.remaining() + " bytes, not " + BufferPool.getPageSize());
         }
-        dis.close();
+        this.data = data.slice();
 
-        setBeforeImage();
+        fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j=0; j<fieldOffsets.length; j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getFieldType(j).getLen();
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -87,12 +125,13 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : data;
             }
-            return new HeapPage(pid,oldDataRef);
+            // neither page writes to a buffer it shares
+            return newPage(oldDataRef.duplicate());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -101,10 +140,35 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of the same layout as this one over data */
+    HeapPage newPage(ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data, td);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // the current image becomes the before image; it is copied when
+        // the page is next changed
+        oldData = null;
+        }
+    }
+
+    /**
+     * Give the page its own copy of the image, keeping the one it had as
+     * the before image, unless that has been done since the last
+     * setBeforeImage. Called before every change to the image.
+     */
+    private void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+                copy.put(data.duplicate());
+                copy.clear();
+                oldData = data;
+                data = copy;
+            }
         }
     }
 
@@ -117,39 +181,152 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of field j of slot in the page image; tuples are
+     *   stored one after another, where a PaxPage stores columns
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    int fieldOffset(int slot, int j) {
+        return headerSize + slot * tupleSize + fieldOffsets[j];
+    }
+
+    private int readInt(int offset) {
+        // big-endian, as DataOutputStream writes it
+        return data.getInt(offset);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new NoSuchElementException("slot " + slot + " of page " + pid + " is empty");
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decode one field of a tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slot, int field) throws NoSuchElementException {
+        checkSlot(slot);
+        return readField(slot, field);
+    }
+
+    private Field readField(int slot, int j) {
+        Type type = td.getFieldType(j);
+        int offset = fieldOffset(slot, j);
+        if (type == Type.INT_TYPE) {
+            return new IntField(readInt(offset));
+        }
+        byte[] bytes = new byte[type.getLen()];
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.get(bytes);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(new DataInputStream(new ByteArrayInputStream(bytes)));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
+
+    /**
+     * Read an integer field of a tuple without decoding anything else.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     * @throws IllegalArgumentException if the field is not an integer
+     */
+    public int getInt(int slot, int field) throws NoSuchElementException {
+        checkSlot(slot);
+        if (td.getFieldType(field) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + field + " is not an integer");
+        }
+        return readInt(fieldOffset(slot, field));
+    }
+
+    /**
+     * @return true if the tuple in slot satisfies p. A comparison of an
+     *   integer field with an integer is made on the page image; any other
+     *   predicate decodes the one field it looks at.
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public boolean filter(int slot, Predicate p) throws NoSuchElementException {
+        checkSlot(slot);
+        int j = p.getField();
+        Field operand = p.getOperand();
+        if (td.getFieldType(j) != Type.INT_TYPE || !(operand instanceof IntField)) {
+            return readField(slot, j).compare(p.getOp(), operand);
+        }
+        int value = readInt(fieldOffset(slot, j));
+        int other = ((IntField) operand).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return value == other;
+        case NOT_EQUALS:
+            return value != other;
+        case GREATER_THAN:
+            return value > other;
+        case GREATER_THAN_OR_EQ:
+            return value >= other;
+        case LESS_THAN:
+            return value < other;
+        case LESS_THAN_OR_EQ:
+            return value <= other;
+        }
+        return false;
+    }
 
+    /**
+     * Decode the tuple in a slot.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, readField(slot, j));
+        }
         return t;
     }
 
+    /**
+     * Decode the given fields of the tuple in a used slot into a tuple of
+     * the projected schema.
+     */
+    private Tuple getTuple(int slot, int[] fields, TupleDesc projected) {
+        Tuple t = new Tuple(projected);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j=0; j<fields.length; j++) {
+            t.setField(j, readField(slot, fields[j]));
+        }
+        return t;
+    }
+
+    /** Encode t into the given slot of the page image. */
+    private void writeTuple(int slot, Tuple t) {
+        for (int j=0; j<td.numFields(); j++) {
+            Field f = t.getField(j);
+            int offset = fieldOffset(slot, j);
+            if (f instanceof IntField) {
+                data.putInt(offset, ((IntField) f).getValue());
+                continue;
+            }
+            int len = td.getFieldType(j).getLen();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+            try {
+                f.serialize(new DataOutputStream(baos));
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            ByteBuffer view = data.duplicate();
+            view.position(offset);
+            view.put(baos.toByteArray(), 0, len);
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -162,64 +339,15 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // empty slots and the padding are kept zero
+        byte[] bytes = new byte[data.capacity()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
 
-        return baos.toByteArray();
+    // see TuplePage.java for javadocs
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
     }
 
     /**
@@ -245,7 +373,23 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid);
+        }
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        }
+        beforeWrite();
+        markSlotUsed(slot, false);
+        for (int j=0; j<td.numFields(); j++) {
+            int offset = fieldOffset(slot, j);
+            for (int i = offset; i < offset + td.getFieldType(j).getLen(); i++) {
+                data.put(i, (byte) 0);
+            }
+        }
+        t.setRecordId(null);
     }
 
     /**
@@ -257,7 +401,17 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of page " + pid);
+        }
+        int i = nextFreeSlot(0);
+        if (i < 0) {
+            throw new DbException("page " + pid + " is full");
+        }
+        beforeWrite();
+        writeTuple(i, t);
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(pid, i));
     }
 
     /**
@@ -266,7 +420,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -274,8 +428,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -283,13 +436,80 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-        for (int i = 0; i < numSlots; ++i){
-            if(!isSlotUsed(i)){
-                ++count;
+        int used = 0;
+        for (int w = 0; w * 64 < numSlots; w++) {
+            used += Long.bitCount(headerWord(w));
+        }
+        return numSlots - used;
+    }
+
+    /** @return the number of empty slots */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
+    /** @return the number of slots */
+    public int getCapacity() {
+        return numSlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return nextFreeSlot(0) >= 0;
+    }
+
+    /**
+     * @return slots 64 * w to 64 * w + 63 of the header, slot 64 * w in the
+     *   lowest bit, with the bits of slots past numSlots clear
+     */
+    private long headerWord(int w) {
+        int offset = w * 8;
+        long word;
+        if (offset + 8 <= headerSize) {
+            // the header is little-endian within a word: slot i is bit
+            // i % 8 of byte i / 8
+            word = Long.reverseBytes(data.getLong(offset));
+        } else {
+            word = 0;
+            for (int i = headerSize - 1; i >= offset; i--) {
+                word = (word << 8) | (data.get(i) & 0xff);
+            }
+        }
+        int last = numSlots - w * 64;
+        return last >= 64 ? word : word & ((1L << last) - 1);
+    }
+
+    /**
+     * @return the first used slot from slot on, or -1 if there is none.
+     *   Skips 64 empty slots at a time, so walking a sparse page is cheap.
+     */
+    public int nextUsedSlot(int slot) {
+        return nextSlot(slot, false);
+    }
+
+    /** @return the first free slot from slot on, or -1 if there is none */
+    private int nextFreeSlot(int slot) {
+        return nextSlot(slot, true);
+    }
+
+    private int nextSlot(int slot, boolean free) {
+        if (slot < 0) {
+            slot = 0;
+        }
+        for (int w = slot / 64; w * 64 < numSlots; w++) {
+            long word = headerWord(w);
+            if (free) {
+                word = ~word;
+            }
+            if (w == slot / 64) {
+                // drop the slots before the one we start from
+                word &= -1L << (slot % 64);
+            }
+            if (word != 0) {
+                int next = w * 64 + Long.numberOfTrailingZeros(word);
+                return next < numSlots ? next : -1;
             }
         }
-        return count;
+        return -1;
     }
 
     /**
@@ -301,7 +521,7 @@ public class HeapPage implements Page {
         int posHdr = i/8;
         // calculate the position in bitmap
         int posBtmp = i%8;
-        int toBit = (header[posHdr]>>posBtmp) & 1;
+        int toBit = (data.get(posHdr)>>posBtmp) & 1;
         return toBit==1 ;
 
     }
@@ -311,7 +531,11 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        // not necessary for lab1
+        if (value) {
+            data.put(i / 8, (byte) (data.get(i / 8) | (1 << (i % 8))));
+        } else {
+            data.put(i / 8, (byte) (data.get(i / 8) & ~(1 << (i % 8))));
+        }
     }
 
     /**
@@ -320,15 +544,69 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuList = new ArrayList<>();
-        // only return the used Slots.
-        for(int i = 0; i < numSlots ;i++){
-            if(isSlotUsed(i))
-                tuList.add(tuples[i]);
+        return new SlotIterator(null, null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p; the
+     *   others are never decoded
+     * @see #filter
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new SlotIterator(p, null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, each cut down to
+     *   the given fields; the other fields are never decoded
+     * @param projected the schema of the given fields
+     */
+    Iterator<Tuple> iterator(int[] fields, TupleDesc projected) {
+        return new SlotIterator(null, fields, projected);
+    }
+
+    /**
+     * Walks the header bitmap a word at a time, decoding each tuple as it is
+     * returned; it allocates nothing but the tuples.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+        private final Predicate p;
+        private final int[] fields;
+        private final TupleDesc projected;
+        private int next;
+
+        SlotIterator(Predicate p, int[] fields, TupleDesc projected) {
+            this.p = p;
+            this.fields = fields;
+            this.projected = projected;
+            this.next = advance(0);
         }
-        return tuList.iterator();
 
+        /** @return the first used, matching slot from slot on, or numSlots */
+        private int advance(int slot) {
+            slot = nextUsedSlot(slot);
+            while (slot >= 0 && p != null && !filter(slot, p)) {
+                slot = nextUsedSlot(slot + 1);
+            }
+            return slot < 0 ? numSlots : slot;
+        }
+
+        public boolean hasNext() {
+            return next < numSlots;
+        }
+
+        public Tuple next() {
+            if (next >= numSlots) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = fields == null ? getTuple(next) : getTuple(next, fields, projected);
+            next = advance(next + 1);
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
 }
-
@@ -1,16 +1,15 @@
 package simpledb;
 
-/** Unique identifier for HeapPage objects. */
-public class HeapPageId implements PageId {
+/**
+ * Unique identifier for HeapPage objects. A HeapPageId is immutable, and
+ * packs into one long, see {@link #pack()}.
+ */
+public final class HeapPageId implements PageId {
 
     /**
-     * The table that is referenced
+     * The table in the high 32 bits, the page number in the low 32 bits
      */
-    private int tableId;
-    /**
-     * The page number in the table
-     */
-    private int pageNum;
+    private final long key;
     /**
      * Constructor. Create a page id structure for a specific page of a
      * specific table. such as table 1-1,1-2...
@@ -20,14 +19,23 @@ public class HeapPageId implements PageId {
      */
     public HeapPageId(int tableId, int pgNo) {
         // some code goes here
-        this.tableId = tableId;
-        this.pageNum = pgNo;
+        this.key = pack(tableId, pgNo);
+    }
+
+    /** @return the long that packs tableId and pgNo */
+    public static long pack(int tableId, int pgNo) {
+        return ((long) tableId << 32) | (pgNo & 0xFFFFFFFFL);
+    }
+
+    /** @return the page id a long made by {@link #pack} stands for */
+    public static HeapPageId unpack(long key) {
+        return new HeapPageId((int) (key >>> 32), (int) key);
     }
 
     /** @return the table associated with this PageId */
     public int getTableId() {
         // some code goes here
-        return this.tableId;
+        return (int) (key >>> 32);
     }
 
     /**
@@ -36,16 +44,24 @@ public class HeapPageId implements PageId {
      */
     public int pageNumber() {
         // some code goes here
-        return this.pageNum;
+        return (int) key;
     }
 
-
-    public void setTableId(int tableId){
-        this.tableId = tableId;
+    public long pack() {
+        return key;
     }
 
-    public void setPgNo(int pgNo){
-        this.pageNum = pgNo;
+    /**
+     * Mix the bits of a packed page id, so that neighbouring pages and
+     * tables spread over all the bits of the result.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
     }
 
     /**
@@ -56,7 +72,7 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        return pageNumber()<<10 + getTableId();
+        return (int) mix(key);
     }
 
     /**
@@ -69,11 +85,11 @@ public class HeapPageId implements PageId {
     public boolean equals(Object o) {
         // some code goes here
         if(!(o instanceof HeapPageId)){ return false; }
-        HeapPageId other = (HeapPageId) o;
-        if (this.pageNumber() == other.pageNumber() && this.getTableId() == other.getTableId()) {
-            return true;
-        }
-        return false;
+        return key == ((HeapPageId) o).key;
+    }
+
+    public String toString() {
+        return "HeapPageId(" + getTableId() + ", " + pageNumber() + ")";
     }
 
     /**
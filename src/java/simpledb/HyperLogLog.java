@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * HyperLogLog estimates the number of distinct values it has been shown,
+ * in a fixed 1KB of registers, to within a few percent. Each value is
+ * hashed to 64 bits; the first bits choose a register, which keeps the
+ * longest run of leading zeros seen in the rest.
+ * <p>
+ * Values cannot be removed, so after deletes the estimate may be high
+ * until the statistics are rebuilt.
+ *
+ * @see ColumnStats
+ */
+public final class HyperLogLog {
+
+    /** Number of hash bits that choose the register. */
+    static final int P = 10;
+
+    /** Number of registers. */
+    static final int M = 1 << P;
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(new byte[M]);
+    }
+
+    HyperLogLog(byte[] registers) {
+        if (registers.length != M)
+            throw new IllegalArgumentException("expected " + M + " registers, not " + registers.length);
+        this.registers = registers;
+    }
+
+    /** Add a value, given as a 64-bit hash of it. */
+    public void add(long hash) {
+        long h = HeapPageId.mix(hash);
+        int reg = (int) (h >>> (64 - P));
+        int rank = Long.numberOfLeadingZeros((h << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[reg])
+            registers[reg] = (byte) rank;
+    }
+
+    /** Add the values added to other to this sketch. */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++)
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Math.scalb(1.0, -r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / M);
+        double e = alpha * M * M / sum;
+        // with few values most registers are empty; count those instead
+        if (e <= 2.5 * M && zeros > 0)
+            e = M * Math.log((double) M / zeros);
+        return Math.round(e);
+    }
+
+    /** @return the registers, for saving; not a copy */
+    byte[] registers() {
+        return registers;
+    }
+}
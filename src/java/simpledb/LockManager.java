@@ -0,0 +1,367 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager implements page-level shared/exclusive locks for strict
+ * two-phase locking. Locks are only released all at once, when a
+ * transaction completes (or explicitly through {@link #release}).
+ * <p>
+ * The lock table is split into stripes by page id. Each stripe has its own
+ * monitor, which blocked requests wait on, so transactions working on
+ * different pages do not queue behind one another. Granting a shared lock
+ * on a page that nobody holds exclusively and nobody is waiting for is a
+ * single compare-and-set and never takes a monitor, which keeps read-heavy
+ * workloads scaling with the number of cores.
+ * <p>
+ * A page's entry is dropped from the table once nobody holds or waits for
+ * its lock, so the table only grows with the pages actually locked. A
+ * request that finds an entry just as it is dropped tries again with a new
+ * one.
+ * <p>
+ * Blocked requests never time out. Instead every request that blocks adds
+ * its edges to a {@link WaitForGraph} and looks for a cycle through itself;
+ * if there is one, the youngest transaction on the cycle is aborted.
+ *
+ * @see BufferPool#getPage
+ * @Threadsafe
+ */
+class LockManager {
+
+    /** Number of stripes in the lock table. */
+    private static final int NUM_STRIPES = 64;
+
+    private static final class PageLock {
+        /** Bit set in state while the lock is held exclusively. */
+        static final int EXCLUSIVE = 1 << 30;
+
+        /** State of an entry dropped from the table; it is never held again. */
+        static final int DEAD = -1;
+
+        // number of shared holders, EXCLUSIVE or DEAD
+        final AtomicInteger state = new AtomicInteger(0);
+        final Set<TransactionId> sharers = ConcurrentHashMap.newKeySet();
+        volatile TransactionId owner;
+        // written only under the stripe's monitor
+        volatile int waiters = 0;
+    }
+
+    private static final class Stripe {
+        final ConcurrentHashMap<PageId, PageLock> locks = new ConcurrentHashMap<>();
+    }
+
+    private final Stripe[] stripes;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages = new ConcurrentHashMap<>();
+
+    private final WaitForGraph waitForGraph = new WaitForGraph();
+    // the stripe each blocked transaction waits on, so a victim can be woken
+    private final ConcurrentHashMap<TransactionId, Stripe> waitingOn = new ConcurrentHashMap<>();
+    // transactions chosen to break a deadlock that have not noticed yet
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong detections = new AtomicLong();
+    private final AtomicLong detectionNanos = new AtomicLong();
+
+    LockManager() {
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.getTableId() * 0x9E3779B9 + pid.pageNumber();
+        h ^= h >>> 16;
+        return stripes[(h & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    /**
+     * Acquire a lock on pid for tid, blocking while another transaction holds
+     * a conflicting lock. READ_ONLY asks for a shared lock and READ_WRITE for
+     * an exclusive one; a transaction that is the only holder of a shared
+     * lock is upgraded in place.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *   a deadlock
+     */
+    void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        Stripe stripe = stripeFor(pid);
+        while (!acquire(tid, pid, perm == Permissions.READ_WRITE, stripe,
+                        stripe.locks.computeIfAbsent(pid, k -> new PageLock()))) {
+            // the entry was dropped before we got it; use a new one
+        }
+    }
+
+    /**
+     * Acquire lock, the entry of pid in stripe, for tid.
+     *
+     * @return false if the entry was dropped from the table first
+     */
+    private boolean acquire(TransactionId tid, PageId pid, boolean exclusive, Stripe stripe,
+                            PageLock lock) throws TransactionAbortedException {
+        if (tid.equals(lock.owner) || (!exclusive && lock.sharers.contains(tid)))
+            return true;
+        // fast path: an uncontended shared lock is one CAS
+        if (!exclusive && lock.waiters == 0 && tryShared(lock, tid)) {
+            addLockedPage(tid, pid);
+            return true;
+        }
+
+        synchronized (stripe) {
+            lock.waiters++;
+        }
+        waitingOn.put(tid, stripe);
+        try {
+            while (true) {
+                boolean detect;
+                synchronized (stripe) {
+                    if (victims.remove(tid))
+                        throw new TransactionAbortedException();
+                    if (exclusive ? tryExclusive(lock, tid) : tryShared(lock, tid))
+                        break;
+                    // the entry may have been dropped before we were counted;
+                    // after that it is only dropped once released, and the
+                    // release sees us waiting and wakes us
+                    if (lock.state.get() == PageLock.DEAD)
+                        return false;
+                    detect = waitForGraph.setWaitsFor(tid, holders(lock, tid));
+                    if (!detect) {
+                        // every release and every victim choice notifies
+                        // the stripe, and we retry before waiting again
+                        try {
+                            stripe.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new TransactionAbortedException();
+                        }
+                    }
+                }
+                // who we wait for changed, so a new cycle may run through us;
+                // look for it without holding the stripe
+                if (detect)
+                    detectDeadlock(tid);
+            }
+            // we may have been chosen just as the cycle broke by itself
+            victims.remove(tid);
+        } finally {
+            waitingOn.remove(tid);
+            waitForGraph.remove(tid);
+            synchronized (stripe) {
+                lock.waiters--;
+            }
+            // an abort may leave the entry unused
+            retire(stripe, pid, lock);
+        }
+        addLockedPage(tid, pid);
+        return true;
+    }
+
+    /**
+     * Take a shared lock on pid for tid only if that can be done without
+     * waiting. A request that never waits never shows up in the wait-for
+     * graph, so it cannot be part of a deadlock.
+     *
+     * @return true if tid now holds a shared or exclusive lock on pid
+     */
+    boolean tryAcquireShared(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        while (true) {
+            PageLock lock = stripe.locks.computeIfAbsent(pid, k -> new PageLock());
+            if (tid.equals(lock.owner) || lock.sharers.contains(tid))
+                return true;
+            if (tryShared(lock, tid)) {
+                addLockedPage(tid, pid);
+                return true;
+            }
+            if (lock.state.get() != PageLock.DEAD)
+                return false;
+        }
+    }
+
+    /** @return the transactions other than tid that hold lock */
+    private static Set<TransactionId> holders(PageLock lock, TransactionId tid) {
+        Set<TransactionId> holders = new HashSet<>(lock.sharers);
+        TransactionId owner = lock.owner;
+        if (owner != null)
+            holders.add(owner);
+        holders.remove(tid);
+        return holders;
+    }
+
+    /**
+     * Look for a cycle through tid in the wait-for graph and, if there is
+     * one, abort the youngest transaction on it.
+     *
+     * @throws TransactionAbortedException if tid itself is the youngest
+     */
+    private void detectDeadlock(TransactionId tid) throws TransactionAbortedException {
+        long start = System.nanoTime();
+        List<TransactionId> cycle = waitForGraph.findCycle(tid);
+        detections.incrementAndGet();
+        detectionNanos.addAndGet(System.nanoTime() - start);
+        if (cycle == null)
+            return;
+
+        deadlocks.incrementAndGet();
+        TransactionId youngest = tid;
+        for (TransactionId t : cycle) {
+            if (t.getId() > youngest.getId())
+                youngest = t;
+        }
+        if (youngest.equals(tid))
+            throw new TransactionAbortedException();
+        victims.add(youngest);
+        Stripe victimStripe = waitingOn.get(youngest);
+        if (victimStripe != null) {
+            synchronized (victimStripe) {
+                victimStripe.notifyAll();
+            }
+        }
+    }
+
+    /** @return the number of deadlocks found so far */
+    long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** @return the number of times the wait-for graph was searched */
+    long getDetectionCount() {
+        return detections.get();
+    }
+
+    /** @return the total time spent searching the wait-for graph, in nanoseconds */
+    long getDetectionNanos() {
+        return detectionNanos.get();
+    }
+
+    private static boolean tryShared(PageLock lock, TransactionId tid) {
+        while (true) {
+            int s = lock.state.get();
+            if (s == PageLock.DEAD)
+                return false;
+            if ((s & PageLock.EXCLUSIVE) != 0)
+                return tid.equals(lock.owner);
+            if (lock.state.compareAndSet(s, s + 1)) {
+                lock.sharers.add(tid);
+                return true;
+            }
+        }
+    }
+
+    private static boolean tryExclusive(PageLock lock, TransactionId tid) {
+        if (tid.equals(lock.owner))
+            return true;
+        // a sharer is counted before it shows up in sharers, so a count of
+        // one that includes tid is tid alone
+        int expect = lock.sharers.contains(tid) ? 1 : 0;
+        if (!lock.state.compareAndSet(expect, PageLock.EXCLUSIVE))
+            return false;
+        lock.owner = tid;
+        lock.sharers.remove(tid);
+        return true;
+    }
+
+    /**
+     * Record that tid holds a lock on pid. Done atomically with respect to
+     * release, which drops the set of a transaction that holds no locks.
+     */
+    private void addLockedPage(TransactionId tid, PageId pid) {
+        lockedPages.compute(tid, (k, pages) -> {
+            if (pages == null)
+                pages = ConcurrentHashMap.newKeySet();
+            pages.add(pid);
+            return pages;
+        });
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = stripeFor(pid).locks.get(pid);
+        return lock != null && (tid.equals(lock.owner) || lock.sharers.contains(tid));
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = stripeFor(pid).locks.get(pid);
+        return lock != null && tid.equals(lock.owner);
+    }
+
+    /** @return the pages tid currently holds locks on */
+    Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        return pages == null ? Collections.<PageId>emptySet() : Collections.unmodifiableSet(pages);
+    }
+
+    /** Release whatever lock tid holds on pid. */
+    void release(TransactionId tid, PageId pid) {
+        lockedPages.computeIfPresent(tid, (k, pages) -> {
+            pages.remove(pid);
+            return pages.isEmpty() ? null : pages;
+        });
+        unlock(tid, pid);
+    }
+
+    /** Release every lock held by tid. */
+    void releaseAll(TransactionId tid) {
+        victims.remove(tid);
+        Set<PageId> pages = lockedPages.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        PageLock lock = stripe.locks.get(pid);
+        if (lock == null)
+            return;
+        if (tid.equals(lock.owner)) {
+            lock.owner = null;
+            lock.state.set(0);
+        } else if (lock.sharers.remove(tid)) {
+            lock.state.decrementAndGet();
+        } else {
+            return;
+        }
+        // waiters is raised before a waiter checks the state, so either it
+        // sees our release or we see it waiting
+        if (lock.waiters > 0) {
+            synchronized (stripe) {
+                stripe.notifyAll();
+            }
+        } else {
+            retire(stripe, pid, lock);
+        }
+    }
+
+    /**
+     * Drop lock, the entry of pid, from the table if nobody holds it or
+     * waits for it. A waiter is counted before it looks at the state, so
+     * one that comes along in between finds the entry dead and retries.
+     */
+    private static void retire(Stripe stripe, PageId pid, PageLock lock) {
+        if (lock.waiters == 0 && lock.state.compareAndSet(0, PageLock.DEAD))
+            stripe.locks.remove(pid, lock);
+    }
+
+    /** @return the number of transactions that hold locks */
+    int transactionCount() {
+        return lockedPages.size();
+    }
+
+    /** @return the number of pages that have an entry in the lock table */
+    int size() {
+        int n = 0;
+        for (Stripe stripe : stripes)
+            n += stripe.locks.size();
+        return n;
+    }
+}
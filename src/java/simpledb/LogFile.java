@@ -32,6 +32,19 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+Commits do not force the log themselves. {@link #logCommit} appends
+the commit record and waits, holding no locks, for the {@link
+LogFlusher} to force everything appended so far in one fsync (group
+commit). A method that forces the log while holding this LogFile's lock
+forces it directly instead.
+
+<p>
+A failed force is final: every later commit and force fails too, and
+the flusher stops. After a failed fsync the operating system may have
+dropped the records it could not write, so a later fsync that succeeds
+would not prove they are on disk.
 */
 
 /**
@@ -93,6 +106,20 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** Number of records appended so far; protected by this */
+    private long appendSeq = 0;
+
+    /** Guards the group commit state below; taken after this and forceLock. */
+    private final Object flushLock = new Object();
+    private long requestedSeq = 0; // highest record some waiter needs forced
+    private long durableSeq = 0; // records up to here are on disk
+    private IOException flushError = null; // a failed force; never cleared
+    private LogFlusher flusher = null;
+
+    /** Held while the log is forced, or its file replaced; taken after this. */
+    private final Object forceLock = new Object();
+    private int forces = 0; // for tests; protected by forceLock
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -125,6 +152,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appendSeq++;
         if(recoveryUndecided){
             recoveryUndecided = false;
             raf.seek(0);
@@ -138,6 +166,13 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the number of times the log has been forced to disk */
+    int getForceCount() {
+        synchronized (forceLock) {
+            return forces;
+        }
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -173,17 +208,25 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long seq;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            // one write for the whole record
+            ByteArrayOutputStream record = new ByteArrayOutputStream(INT_SIZE + 2 * LONG_SIZE);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            raf.write(record.toByteArray());
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            seq = appendSeq;
+        }
+        awaitDurable(seq);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -265,7 +308,8 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors besides (id, byte[])
+            Constructor<?> pageConst = pageClass.getConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,12 +319,15 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         } catch (InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
@@ -442,12 +489,17 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            raf.seek(raf.length());
+            newFile.delete();
+            // the new file holds every record still needed
+            raf.getChannel().force(true);
+        }
+        markDurable(appendSeq, null);
 
         currentOffset = raf.getFilePointer();
         //print();
@@ -478,6 +530,10 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            synchronized (flushLock) {
+                if (flusher != null)
+                    flusher.interrupt();
+            }
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -503,8 +559,131 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = appendSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * Wait until the records up to seq are on disk. The caller that holds
+     * this LogFile's lock forces the log itself, since the flusher would
+     * need that lock.
+     */
+    private void awaitDurable(long seq) throws IOException {
+        if (Thread.holdsLock(this)) {
+            synchronized (flushLock) {
+                if (flushError != null)
+                    throw new IOException("log force failed", flushError);
+            }
+            try {
+                synchronized (forceLock) {
+                    forceFile(raf);
+                    forces++;
+                }
+            } catch (IOException e) {
+                markDurable(appendSeq, e);
+                throw e;
+            }
+            markDurable(appendSeq, null);
+            return;
+        }
+        synchronized (flushLock) {
+            if (flushError != null)
+                throw new IOException("log force failed", flushError);
+            if (durableSeq >= seq)
+                return;
+            if (flusher == null) {
+                flusher = new LogFlusher(this);
+                flusher.start();
+            }
+            if (requestedSeq < seq) {
+                requestedSeq = seq;
+                flushLock.notifyAll();
+            }
+            boolean interrupted = false;
+            while (durableSeq < seq && flushError == null) {
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (durableSeq < seq)
+                throw new IOException("log force failed", flushError);
+        }
+    }
+
+    /**
+     * Record that the records up to seq are on disk, or that forcing them
+     * failed, and wake the waiters.
+     */
+    private void markDurable(long seq, IOException error) {
+        synchronized (flushLock) {
+            if (error != null)
+                flushError = error;
+            else
+                durableSeq = Math.max(durableSeq, seq);
+            flushLock.notifyAll();
+        }
+    }
+
+    /** Force f to disk; a seam for tests that make forces fail. */
+    void forceFile(RandomAccessFile f) throws IOException {
+        f.getChannel().force(true);
+    }
+
+    /** @return the flusher thread, or null if none was started */
+    LogFlusher getFlusher() {
+        synchronized (flushLock) {
+            return flusher;
+        }
+    }
+
+    /**
+     * Wait up to timeoutMs for a commit to ask for the log to be forced,
+     * then force everything appended so far. Called by the
+     * {@link LogFlusher}.
+     *
+     * @return false if nobody asked in time
+     * @throws IOException if the force failed, now or before; the flusher
+     *   stops then, as nothing can be forced any more
+     */
+    boolean flushBatch(long timeoutMs) throws InterruptedException, IOException {
+        synchronized (flushLock) {
+            if (flushError != null)
+                throw flushError;
+            if (requestedSeq <= durableSeq) {
+                flushLock.wait(timeoutMs);
+                if (requestedSeq <= durableSeq)
+                    return false;
+            }
+        }
+        long target;
+        RandomAccessFile file;
+        synchronized (this) {
+            target = appendSeq;
+            file = raf;
+        }
+        try {
+            synchronized (forceLock) {
+                // a replaced file was forced when it was replaced
+                if (file == raf) {
+                    forceFile(file);
+                    forces++;
+                }
+            }
+        } catch (IOException e) {
+            markDurable(target, e);
+            throw e;
+        }
+        markDurable(target, null);
+        return true;
     }
 
 }
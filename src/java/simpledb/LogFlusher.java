@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * LogFlusher is the LogFile's group commit thread. Committing transactions
+ * append their records to the log and ask for it to be forced; the flusher
+ * forces everything appended so far with one fsync and wakes all of them.
+ * Commits that arrive while it is forcing are forced together in the next
+ * batch, so the more transactions commit at once, the more each fsync
+ * covers.
+ * <p>
+ * Like the {@link PageWriter}, the flusher only holds a weak reference to
+ * its log between batches and stops once the log is gone, so a log that is
+ * replaced (as {@link Database#reset} does) does not leave a thread behind.
+ * It also stops once a force has failed, since every later one fails too.
+ *
+ * @see LogFile#logCommit
+ */
+class LogFlusher extends Thread {
+
+    /** How long to wait for work before checking the log still exists. */
+    private static final long IDLE_WAIT_MS = 1000;
+
+    private final WeakReference<LogFile> log;
+
+    LogFlusher(LogFile log) {
+        super("simpledb log flusher");
+        setDaemon(true);
+        this.log = new WeakReference<LogFile>(log);
+    }
+
+    public void run() {
+        while (true) {
+            LogFile lf = log.get();
+            if (lf == null)
+                return;
+            try {
+                lf.flushBatch(IDLE_WAIT_MS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // flushBatch has handed the error to the waiters, and the
+                // log cannot be forced any more
+                return;
+            }
+            lf = null;
+        }
+    }
+}
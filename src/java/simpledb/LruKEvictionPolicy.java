@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the page whose K-th most
+ * recent reference is oldest. Pages referenced fewer than K times have an
+ * infinite backward K-distance and go first, oldest last reference first,
+ * which keeps one-off scan pages from pushing out the hot set.
+ * <p>
+ * The reference history of evicted pages is retained for up to capacity
+ * pages so that a page coming back soon is not treated as brand new.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** K used by {@link EvictionPolicy#create}. */
+    public static final int DEFAULT_K = 2;
+
+    private static final class History {
+        final PageId pid;
+        final long[] times; // ring of the last k reference times
+        int count;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void reference(long now) {
+            times[count % times.length] = now;
+            count++;
+        }
+
+        long last() {
+            return times[(count - 1) % times.length];
+        }
+
+        /** @return time of the K-th most recent reference, or -1 if there were fewer than K */
+        long kth() {
+            if (count < times.length)
+                return -1;
+            return times[count % times.length];
+        }
+    }
+
+    private static final Comparator<History> BY_K_DISTANCE = new Comparator<History>() {
+        public int compare(History a, History b) {
+            int c = Long.compare(a.kth(), b.kth());
+            if (c != 0)
+                return c;
+            return Long.compare(a.last(), b.last());
+        }
+    };
+
+    private final int k;
+    private final int retained;
+    private long clock = 0;
+    private final Map<PageId, History> resident = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>(BY_K_DISTANCE);
+    private final LinkedHashMap<PageId, History> evicted = new LinkedHashMap<>();
+
+    /**
+     * @param capacity the number of pages in the pool
+     * @param k the number of references to remember per page
+     */
+    public LruKEvictionPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.retained = capacity;
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (resident.containsKey(pid))
+            return;
+        History h = evicted.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.reference(++clock);
+        resident.put(pid, h);
+        order.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        evicted.put(pid, h);
+        Iterator<PageId> it = evicted.keySet().iterator();
+        while (evicted.size() > retained && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized void pageDiscarded(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null)
+            order.remove(h);
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        for (History h : order) {
+            if (evictable.test(h.pid))
+                return h.pid;
+        }
+        return null;
+    }
+}
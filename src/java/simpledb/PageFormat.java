@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PageFormat is the layout of the pages of a HeapFile. A page of zeroes is
+ * an empty page in every format, so {@link HeapPage#createEmptyPageData}
+ * serves them all.
+ */
+public enum PageFormat {
+
+    /** Fixed-length tuples behind a bitmap of used slots, in a {@link HeapPage}. */
+    HEAP {
+        TuplePage createPage(HeapPageId pid, ByteBuffer data, TupleDesc td) throws IOException {
+            return new HeapPage(pid, data, td);
+        }
+
+        int spaceFor(TupleDesc td, Tuple t) {
+            return 1;
+        }
+
+        int capacity(TupleDesc td) {
+            return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        }
+    },
+
+    /** Variable-length records behind a slot directory, in a {@link SlottedPage}. */
+    SLOTTED {
+        TuplePage createPage(HeapPageId pid, ByteBuffer data, TupleDesc td) throws IOException {
+            return new SlottedPage(pid, data, td);
+        }
+
+        int spaceFor(TupleDesc td, Tuple t) {
+            return SlottedPage.recordSize(td, t);
+        }
+
+        int capacity(TupleDesc td) {
+            return SlottedPage.capacity();
+        }
+    },
+
+    /** Fixed-length tuples stored column by column, in a {@link PaxPage}. */
+    PAX {
+        TuplePage createPage(HeapPageId pid, ByteBuffer data, TupleDesc td) throws IOException {
+            return new PaxPage(pid, data, td);
+        }
+
+        int spaceFor(TupleDesc td, Tuple t) {
+            return 1;
+        }
+
+        int capacity(TupleDesc td) {
+            return HEAP.capacity(td);
+        }
+    };
+
+    /**
+     * Build a page of this format over data, which the page keeps and
+     * never writes to.
+     */
+    abstract TuplePage createPage(HeapPageId pid, ByteBuffer data, TupleDesc td) throws IOException;
+
+    /** @return the free space t takes on a page of this format */
+    abstract int spaceFor(TupleDesc td, Tuple t);
+
+    /** @return the free space on an empty page of this format */
+    abstract int capacity(TupleDesc td);
+}
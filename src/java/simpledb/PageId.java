@@ -32,5 +32,14 @@ public interface PageId {
     public boolean equals(Object o);
 
     public int pageNumber();
+
+    /**
+     * @return the table id in the high 32 bits and the page number in the
+     *   low 32 bits of a long, which identifies the page as well as the
+     *   PageId itself does
+     */
+    public default long pack() {
+        return HeapPageId.pack(getTableId(), pageNumber());
+    }
 }
 
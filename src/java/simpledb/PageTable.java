@@ -0,0 +1,311 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * PageTable maps the ids of resident pages to their frames. The table is
+ * split into stripes, each with its own monitor, so that threads working on
+ * different pages rarely contend. Plain lookups do not take the monitor.
+ * <p>
+ * Every structural change (adding a frame, pinning it, removing it) for a
+ * given page happens under the monitor of that page's stripe. This is what
+ * makes "look up, or else create a frame to load into" a single step, and
+ * what keeps a frame from being pinned while it is being evicted. The
+ * eviction policy is told about loads and removals under the same monitor,
+ * so it sees them in the order they happen: a page leaves before it can
+ * come back, and is never removed before it was added.
+ * <p>
+ * Frames are found by their page id packed into a long ({@link PageId#pack}),
+ * in open-addressing tables of frames, so that a lookup neither allocates
+ * nor calls PageId.hashCode or equals.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    /** Marks a removed frame's place, so that probes go on past it. */
+    private static final Frame REMOVED = new Frame(new HeapPageId(-1, -1));
+
+    /**
+     * A linear-probing table of frames, keyed on {@link Frame#key}. Written
+     * only under the stripe's monitor. Readers do not lock: a slot is
+     * written in one step, removed frames leave a REMOVED marker, and the
+     * table is grown or cleaned up by building a new one and publishing
+     * that, so a reader always probes a consistent table.
+     */
+    private static final class Stripe {
+        volatile AtomicReferenceArray<Frame> slots = new AtomicReferenceArray<>(16);
+        int count; // frames
+        int used; // frames and REMOVED markers
+
+        Frame get(long key) {
+            AtomicReferenceArray<Frame> t = slots;
+            int mask = t.length() - 1;
+            for (int i = index(key, mask); ; i = (i + 1) & mask) {
+                Frame f = t.get(i);
+                if (f == null)
+                    return null;
+                if (f != REMOVED && f.key == key)
+                    return f;
+            }
+        }
+
+        void put(Frame frame) {
+            if (used + 1 > slots.length() * 3 / 4)
+                rehash();
+            AtomicReferenceArray<Frame> t = slots;
+            int mask = t.length() - 1;
+            int i = index(frame.key, mask);
+            while (t.get(i) != null && t.get(i) != REMOVED)
+                i = (i + 1) & mask;
+            if (t.get(i) == null)
+                used++;
+            t.set(i, frame);
+            count++;
+        }
+
+        Frame remove(long key) {
+            AtomicReferenceArray<Frame> t = slots;
+            int mask = t.length() - 1;
+            for (int i = index(key, mask); ; i = (i + 1) & mask) {
+                Frame f = t.get(i);
+                if (f == null)
+                    return null;
+                if (f != REMOVED && f.key == key) {
+                    t.set(i, REMOVED);
+                    count--;
+                    return f;
+                }
+            }
+        }
+
+        /** Move the frames to a new table, sized for twice their number. */
+        private void rehash() {
+            int n = 16;
+            while (n < count * 4)
+                n <<= 1;
+            AtomicReferenceArray<Frame> old = slots;
+            AtomicReferenceArray<Frame> t = new AtomicReferenceArray<>(n);
+            for (int i = 0; i < old.length(); i++) {
+                Frame f = old.get(i);
+                if (f == null || f == REMOVED)
+                    continue;
+                int j = index(f.key, n - 1);
+                while (t.get(j) != null)
+                    j = (j + 1) & (n - 1);
+                t.set(j, f);
+            }
+            used = count;
+            slots = t;
+        }
+
+        void addFramesTo(List<Frame> result) {
+            AtomicReferenceArray<Frame> t = slots;
+            for (int i = 0; i < t.length(); i++) {
+                Frame f = t.get(i);
+                if (f != null && f != REMOVED && f.isLoaded())
+                    result.add(f);
+            }
+        }
+
+        private static int index(long key, int mask) {
+            return (int) HeapPageId.mix(key) & mask;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, AtomicInteger> tableSizes = new ConcurrentHashMap<>();
+    private final EvictionPolicy evictionPolicy;
+
+    /**
+     * @param numStripes the number of stripes; rounded up to a power of two
+     * @param evictionPolicy the policy to notify when a page is loaded or removed
+     */
+    PageTable(int numStripes, EvictionPolicy evictionPolicy) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe();
+        mask = n - 1;
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    private Stripe stripeFor(long key) {
+        // the stripe takes the high bits of the hash, the table the low ones
+        return stripes[(int) (HeapPageId.mix(key) >>> 32) & mask];
+    }
+
+    /** @return the frame for pid, or null if the page is not resident */
+    Frame get(PageId pid) {
+        return get(pid.pack());
+    }
+
+    /** @return the frame for the packed page id key, or null */
+    Frame get(long key) {
+        return stripeFor(key).get(key);
+    }
+
+    /**
+     * Pin the frame for pid, first creating an empty frame if there is none.
+     * A newly created frame counts towards {@link #size} right away.
+     */
+    Frame pin(PageId pid) {
+        long key = pid.pack();
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Frame f = s.get(key);
+            if (f == null) {
+                f = new Frame(pid);
+                s.put(f);
+                size.incrementAndGet();
+                tableSize(pid.getTableId()).incrementAndGet();
+            }
+            f.pin();
+            return f;
+        }
+    }
+
+    /**
+     * Pin the frame for pid only if its page is resident.
+     *
+     * @return the pinned frame, or null
+     */
+    Frame pinIfLoaded(PageId pid) {
+        long key = pid.pack();
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Frame f = s.get(key);
+            if (f == null || !f.isLoaded())
+                return null;
+            f.pin();
+            return f;
+        }
+    }
+
+    /**
+     * Remove the frame for pid if it is loaded, unpinned and clean.
+     *
+     * @return true if the frame was removed
+     */
+    boolean evict(PageId pid) {
+        long key = pid.pack();
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Frame f = s.get(key);
+            if (f == null || !isEvictable(f) || f.getPage().isDirty() != null)
+                return false;
+            s.remove(key);
+            removed(pid, true);
+            return true;
+        }
+    }
+
+    /**
+     * Remove the frame for pid whatever its state.
+     *
+     * @return the removed frame, or null if there was none
+     */
+    Frame remove(PageId pid) {
+        long key = pid.pack();
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Frame f = s.remove(key);
+            if (f != null) {
+                removed(pid, false);
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Remove the given frame, but only if it is still the one mapped to its
+     * page id. Used to back out a frame whose page could not be read.
+     */
+    void remove(Frame frame) {
+        Stripe s = stripeFor(frame.key);
+        synchronized (s) {
+            if (s.get(frame.key) == frame) {
+                s.remove(frame.key);
+                removed(frame.pid, false);
+            }
+        }
+    }
+
+    /**
+     * Hand the page read into frame to its waiters, and tell the eviction
+     * policy about it if the frame is still mapped. Both happen under the
+     * stripe's monitor, so a removal cannot slip in between and leave the
+     * policy holding a page that is no longer resident.
+     */
+    void loaded(Frame frame, Page page) {
+        Stripe s = stripeFor(frame.key);
+        synchronized (s) {
+            frame.loaded(page);
+            if (s.get(frame.key) == frame) {
+                evictionPolicy.pageAdded(frame.pid);
+            }
+        }
+    }
+
+    /**
+     * Account for the removal of pid's frame; called under its stripe's
+     * monitor.
+     *
+     * @param evicted whether the page was chosen as a victim rather than
+     *   discarded
+     */
+    private void removed(PageId pid, boolean evicted) {
+        size.decrementAndGet();
+        tableSize(pid.getTableId()).decrementAndGet();
+        if (evicted)
+            evictionPolicy.pageRemoved(pid);
+        else
+            evictionPolicy.pageDiscarded(pid);
+    }
+
+    private AtomicInteger tableSize(int tableId) {
+        AtomicInteger n = tableSizes.get(tableId);
+        return n != null ? n : tableSizes.computeIfAbsent(tableId, k -> new AtomicInteger());
+    }
+
+    /**
+     * @return true if pid is resident and unpinned. This is only a hint for
+     *   the eviction policy, {@link #evict} checks again under the stripe
+     *   monitor. It never blocks, so it is safe to call from inside the
+     *   policy's own monitor.
+     */
+    boolean isEvictable(PageId pid) {
+        Frame f = get(pid);
+        return f != null && isEvictable(f);
+    }
+
+    private static boolean isEvictable(Frame f) {
+        return f.isLoaded() && f.getPinCount() == 0;
+    }
+
+    /** @return the number of frames, including those still being read */
+    int size() {
+        return size.get();
+    }
+
+    /** @return the number of frames of the given table */
+    int size(int tableId) {
+        AtomicInteger n = tableSizes.get(tableId);
+        return n == null ? 0 : n.get();
+    }
+
+    /** @return a snapshot of all frames whose page has been read */
+    List<Frame> frames() {
+        List<Frame> result = new ArrayList<>(size());
+        for (Stripe s : stripes) {
+            s.addFramesTo(result);
+        }
+        return result;
+    }
+}
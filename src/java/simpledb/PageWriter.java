@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PageWriter is the BufferPool's background writer. Every so often it
+ * writes a batch of dirty pages of committed transactions back to their
+ * files, in table and page order so that neighbouring pages go out as one
+ * sweep over the file instead of as random writes. Commits write their own
+ * pages, because the log cannot redo them after a crash yet; the writer
+ * retries the pages a commit failed to write, so that eviction rarely has
+ * to write a page itself.
+ * <p>
+ * If asked to, the writer also saves the list of resident pages now and
+ * then, for a warm restart.
+ * <p>
+ * The writer only holds a weak reference to its pool and stops once the
+ * pool is gone, so a pool that is replaced (as tests do through
+ * {@link Database#resetBufferPool}) does not leave a thread behind.
+ *
+ * @see BufferPool#flushCommittedPage
+ */
+class PageWriter extends Thread {
+
+    /** Orders pages by table, then by page number. */
+    static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId())
+                return Integer.compare(a.getTableId(), b.getTableId());
+            return Integer.compare(a.pageNumber(), b.pageNumber());
+        }
+    };
+
+    private final WeakReference<BufferPool> pool;
+    private final long intervalMs;
+    private final int batchPages;
+    private boolean wakeUp = false; // protected by this
+    private File saveFile; // protected by this
+    private long saveIntervalMs; // protected by this
+    private long lastSave; // protected by this
+
+    /**
+     * @param pool the pool to clean
+     * @param intervalMs the time to sleep between batches
+     * @param batchPages the maximum number of pages written per batch
+     */
+    PageWriter(BufferPool pool, long intervalMs, int batchPages) {
+        super("simpledb page writer");
+        setDaemon(true);
+        this.pool = new WeakReference<BufferPool>(pool);
+        this.intervalMs = intervalMs;
+        this.batchPages = batchPages;
+    }
+
+    /** Start the next batch now instead of at the end of the interval. */
+    synchronized void wakeUp() {
+        wakeUp = true;
+        notifyAll();
+    }
+
+    /**
+     * Save the pool's resident pages to f every intervalMs milliseconds.
+     *
+     * @param f the file to write, or null to stop saving
+     */
+    synchronized void saveEvery(File f, long intervalMs) {
+        saveFile = f;
+        saveIntervalMs = intervalMs;
+        lastSave = System.currentTimeMillis();
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (!wakeUp)
+                        wait(intervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeUp = false;
+            }
+            BufferPool bp = pool.get();
+            if (bp == null)
+                return;
+            writeBatch(bp);
+            File f = dueSave();
+            if (f != null) {
+                try {
+                    bp.saveResidentPages(f);
+                } catch (Exception e) {
+                    // the list only warms up the next pool; try again next time
+                    Debug.log("could not save resident pages to %s: %s", f, e);
+                }
+            }
+            bp = null;
+        }
+    }
+
+    /** @return the file to save the resident pages to now, or null */
+    private synchronized File dueSave() {
+        long now = System.currentTimeMillis();
+        if (saveFile == null || now - lastSave < saveIntervalMs)
+            return null;
+        lastSave = now;
+        return saveFile;
+    }
+
+    /** Write up to batchPages committed dirty pages of bp, in page order. */
+    private void writeBatch(BufferPool bp) {
+        List<PageId> dirty = new ArrayList<PageId>();
+        for (Frame f : bp.frames()) {
+            if (BufferPool.isCommittedDirty(f))
+                dirty.add(f.pid);
+        }
+        Collections.sort(dirty, PAGE_ORDER);
+        int written = 0;
+        for (PageId pid : dirty) {
+            if (written == batchPages)
+                break;
+            try {
+                if (bp.flushCommittedPage(pid))
+                    written++;
+            } catch (Exception e) {
+                // the page stays dirty, and eviction or the next batch
+                // will try again
+                Debug.log("could not write page %s: %s", pid, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * PaxFile is a HeapFile whose pages are PaxPages, for tables that are
+ * mostly scanned for a few of their columns. Use
+ * {@link #iterator(TransactionId, int[])} to read only those columns.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, which is
+     * optionally read through a memory mapping.
+     *
+     * @param mapped
+     *            true to read pages from a memory mapping of the file
+     */
+    public PaxFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped, PageFormat.PAX);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxPage is a page of a HeapFile in the {@link PageFormat#PAX} format.
+ * It holds as many tuples as a HeapPage, behind the same header bitmap,
+ * but stores them column by column: after the header come one minipage
+ * per field, each holding that field of every slot, so field j of slot i
+ * is at
+ * <p>
+ *      header size + no. tuple slots * (size of fields 0 to j-1) + i * size of field j
+ * <p>
+ * A scan that only reads a few fields, through
+ * {@link HeapFile#iterator(TransactionId, int[])} or {@link #readInts},
+ * walks a few contiguous runs of memory and never touches the others.
+ *
+ * @see HeapPage
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /** size of each field */
+    private final int[] fieldLengths;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, which
+     * the page keeps and never writes to.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        fieldLengths = fieldLengths(td);
+    }
+
+    PaxPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+        super(id, data, td);
+        fieldLengths = fieldLengths(td);
+    }
+
+    private static int[] fieldLengths(TupleDesc td) {
+        int[] lengths = new int[td.numFields()];
+        for (int j=0; j<lengths.length; j++) {
+            lengths[j] = td.getFieldType(j).getLen();
+        }
+        return lengths;
+    }
+
+    HeapPage newPage(ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data, td);
+    }
+
+    int fieldOffset(int slot, int j) {
+        return headerSize + numSlots * fieldOffsets[j] + slot * fieldLengths[j];
+    }
+
+    /**
+     * Copy an integer field of every tuple on the page into values, in
+     * slot order, reading only that field's minipage.
+     *
+     * @param values an array of at least getCapacity() - getNumEmptySlots()
+     *   elements
+     * @return the number of values copied
+     * @throws IllegalArgumentException if the field is not an integer
+     */
+    public int readInts(int field, int[] values) {
+        if (td.getFieldType(field) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + field + " is not an integer");
+        }
+        int n = 0;
+        for (int slot = nextUsedSlot(0); slot >= 0; slot = nextUsedSlot(slot + 1)) {
+            values[n++] = getInt(slot, field);
+        }
+        return n;
+    }
+}
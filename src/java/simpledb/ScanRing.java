@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * ScanRing is a small private set of frames that a large sequential scan
+ * reuses for the pages it reads from disk, in the spirit of PostgreSQL's
+ * buffer access strategies. Pages that are not already in the shared
+ * BufferPool are read into the ring instead of the pool, so one pass over
+ * a table bigger than the pool cannot push out everybody else's hot pages.
+ * <p>
+ * The ring also keeps track of the reads the scan has started ahead of
+ * itself ({@link BufferPool#prefetch}); a page whose read is still pending
+ * takes a frame once the scan asks for it.
+ * <p>
+ * Reads ahead happen before the scan has locked the page, so by the time
+ * it does the page may have been changed and written since. Every page in
+ * the ring therefore remembers the BufferPool's write sequence number from
+ * when its read started, and a page written after that is dropped instead
+ * of returned.
+ * <p>
+ * A ring belongs to one scan and is not thread safe.
+ *
+ * @see BufferPool#newScanRing
+ * @see BufferPool#pinPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    private final Page[] frames;
+    // the write sequence number from when each frame's read started
+    private final long[] readSeqs;
+    private int next = 0;
+    private final Map<PageId, Read> pending = new LinkedHashMap<>();
+
+    /** A read started ahead of the scan. */
+    private static final class Read {
+        final Future<Page> page;
+        final long seq;
+
+        Read(Future<Page> page, long seq) {
+            this.page = page;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @param size the number of frames in the ring
+     */
+    public ScanRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring must have at least one frame");
+        frames = new Page[size];
+        readSeqs = new long[size];
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @param lastWrite the write sequence number of the latest write of the
+     *   page
+     * @return the page with the given id if it is still in the ring, or
+     *   null. If the page is being read ahead, wait for that read. A page
+     *   whose read started before lastWrite is dropped, and null returned.
+     */
+    Page get(PageId pid, long lastWrite) {
+        for (int i = 0; i < frames.length; i++) {
+            Page p = frames[i];
+            if (p != null && p.getId().equals(pid)) {
+                if (readSeqs[i] >= lastWrite)
+                    return p;
+                frames[i] = null;
+                return null;
+            }
+        }
+        Read read = pending.remove(pid);
+        if (read == null)
+            return null;
+        if (read.seq < lastWrite) {
+            read.page.cancel(false);
+            return null;
+        }
+        try {
+            Page p = read.page.get();
+            add(p, read.seq);
+            return p;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // let the caller read the page itself
+            return null;
+        }
+    }
+
+    /** @return true if pid is in the ring or being read into it */
+    boolean contains(PageId pid) {
+        if (pending.containsKey(pid))
+            return true;
+        for (Page p : frames) {
+            if (p != null && p.getId().equals(pid))
+                return true;
+        }
+        return false;
+    }
+
+    /** @return the number of reads ahead that have not been asked for yet */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Remember a read started ahead of the scan.
+     *
+     * @param seq the write sequence number when the read started
+     */
+    void addPending(PageId pid, Future<Page> read, long seq) {
+        pending.put(pid, new Read(read, seq));
+    }
+
+    /**
+     * Put a page into the ring, reusing the frame of the oldest page in it.
+     *
+     * @param seq the write sequence number when the page's read started
+     */
+    void add(Page page, long seq) {
+        frames[next] = page;
+        readSeqs[next] = seq;
+        next = (next + 1) % frames.length;
+    }
+
+    /** Drop every page held by the ring, and give up pending reads. */
+    void clear() {
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = null;
+        next = 0;
+        for (Read read : pending.values())
+            read.page.cancel(false);
+        pending.clear();
+    }
+}
@@ -0,0 +1,408 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * SlottedPage is a page of a HeapFile in the {@link PageFormat#SLOTTED}
+ * format, which stores variable-length records. A string takes two bytes of
+ * length and then its characters, instead of the Type.STRING_LEN bytes it
+ * takes on a HeapPage, so a page of a table of short strings holds several
+ * times as many tuples.
+ * <p>
+ * The page starts with two ints: the number of entries in its slot
+ * directory, and the offset of its record area (0 when there are no
+ * records). The directory follows, with an unsigned short offset and an
+ * unsigned short length per slot; an offset of 0 marks an empty slot.
+ * Records are stored from the end of the page downwards, and a page of
+ * zeroes is an empty page. Slot numbers, and so RecordIds, never change:
+ * deleted records leave holes, which are squeezed out when an insert needs
+ * the space.
+ * <p>
+ * Like a HeapPage, a SlottedPage decodes tuples only when they are asked
+ * for and keeps a copy-on-write before image.
+ *
+ * @see HeapPage
+ */
+public class SlottedPage implements TuplePage {
+
+    /** bytes before the slot directory */
+    static final int HEADER_BYTES = 8;
+    /** bytes per slot directory entry */
+    static final int SLOT_BYTES = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+
+    /** the page image; see HeapPage for how it is shared */
+    private ByteBuffer data; // protected by oldDataLock when replaced
+    private ByteBuffer oldData; // protected by oldDataLock
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * page keeps data and never writes to it, so the caller must not change
+     * or reuse the array afterwards.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    SlottedPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = BufferPool.getPageSize();
+        if (data.remaining() != pageSize) {
+            throw new IOException("page image is " + data.remaining() + " bytes, not " + pageSize);
+        }
+        if (pageSize > 1 << 16) {
+            throw new IOException("slotted pages cannot be larger than 64KB");
+        }
+        this.data = data.slice();
+        int n = numEntries();
+        if (n < 0 || HEADER_BYTES + n * SLOT_BYTES > dataStart()) {
+            throw new IOException("bad slot directory on page " + id);
+        }
+    }
+
+    /** @return the free space on an empty page, in bytes */
+    static int capacity() {
+        return BufferPool.getPageSize() - HEADER_BYTES - SLOT_BYTES;
+    }
+
+    /** @return the bytes the record of t takes, not counting its slot entry */
+    static int recordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 2 + Math.min(Type.STRING_LEN, ((StringField) t.getField(j)).getValue().length());
+            }
+        }
+        return size;
+    }
+
+    private int numEntries() {
+        return data.getInt(0);
+    }
+
+    private int dataStart() {
+        int start = data.getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int offset(int slot) {
+        return data.getShort(HEADER_BYTES + slot * SLOT_BYTES) & 0xffff;
+    }
+
+    private int length(int slot) {
+        return data.getShort(HEADER_BYTES + slot * SLOT_BYTES + 2) & 0xffff;
+    }
+
+    private void setEntry(int slot, int offset, int length) {
+        data.putShort(HEADER_BYTES + slot * SLOT_BYTES, (short) offset);
+        data.putShort(HEADER_BYTES + slot * SLOT_BYTES + 2, (short) length);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            ByteBuffer oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData != null ? oldData : data;
+            }
+            return new SlottedPage(pid, oldDataRef.duplicate(), td);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Give the page its own copy of the image, keeping the one it had as
+     * the before image, unless that has been done since the last
+     * setBeforeImage.
+     */
+    private void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                ByteBuffer copy = ByteBuffer.allocate(pageSize);
+                copy.put(data.duplicate());
+                copy.clear();
+                oldData = data;
+                data = copy;
+            }
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        byte[] bytes = new byte[pageSize];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /** @return true if the slot holds a tuple */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < numEntries() && offset(slot) != 0;
+    }
+
+    /** @return the first used slot from slot on, or -1 if there is none */
+    public int nextUsedSlot(int slot) {
+        int n = numEntries();
+        for (int i = Math.max(0, slot); i < n; i++) {
+            if (offset(i) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int firstEmptySlot() {
+        int n = numEntries();
+        for (int i = 0; i < n; i++) {
+            if (offset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the bytes not taken by the header, the directory or records */
+    private int freeBytes() {
+        int n = numEntries();
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            used += length(i);
+        }
+        return pageSize - HEADER_BYTES - n * SLOT_BYTES - used;
+    }
+
+    /**
+     * @return the bytes a new record can take, counting the holes left by
+     *   deletes and the slot entry the record may need
+     */
+    public int getFreeSpace() {
+        int free = freeBytes();
+        if (firstEmptySlot() < 0) {
+            free -= SLOT_BYTES;
+        }
+        return Math.max(0, free);
+    }
+
+    public int getCapacity() {
+        return capacity();
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return recordSize(td, t) <= getFreeSpace();
+    }
+
+    /**
+     * Decode one field of a tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slot, int field) throws NoSuchElementException {
+        if (!isSlotUsed(slot)) {
+            throw new NoSuchElementException("slot " + slot + " of page " + pid + " is empty");
+        }
+        int pos = offset(slot);
+        for (int j=0; j<field; j++) {
+            pos += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2 + (data.getShort(pos) & 0xffff);
+        }
+        return readField(pos, field);
+    }
+
+    private Field readField(int pos, int j) {
+        if (td.getFieldType(j) == Type.INT_TYPE) {
+            return new IntField(data.getInt(pos));
+        }
+        int len = data.getShort(pos) & 0xffff;
+        byte[] bytes = new byte[len];
+        ByteBuffer view = data.duplicate();
+        view.position(pos + 2);
+        view.get(bytes);
+        // one byte per character, as StringField writes them
+        return new StringField(new String(bytes, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+    }
+
+    /**
+     * Decode the tuple in a slot.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int pos = offset(slot);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, readField(pos, j));
+            pos += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2 + (data.getShort(pos) & 0xffff);
+        }
+        return t;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of page " + pid);
+        }
+        int len = recordSize(td, t);
+        if (len > getFreeSpace()) {
+            throw new DbException("page " + pid + " is full");
+        }
+        beforeWrite();
+        int n = numEntries();
+        int slot = firstEmptySlot();
+        int entries = slot < 0 ? n + 1 : n;
+        if (dataStart() - len < HEADER_BYTES + entries * SLOT_BYTES) {
+            compact();
+        }
+        if (slot < 0) {
+            slot = n;
+            data.putInt(0, entries);
+        }
+        int offset = dataStart() - len;
+        writeRecord(offset, t);
+        data.putInt(4, offset);
+        setEntry(slot, offset, len);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    private void writeRecord(int offset, Tuple t) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        for (int j=0; j<td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                view.putInt(((IntField) f).getValue());
+                continue;
+            }
+            String s = ((StringField) f).getValue();
+            int len = Math.min(Type.STRING_LEN, s.length());
+            view.putShort((short) len);
+            for (int i = 0; i < len; i++) {
+                view.put((byte) s.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Move the records together at the end of the page, keeping their
+     * slots. Only called after beforeWrite, so data is the page's own.
+     */
+    private void compact() {
+        ByteBuffer packed = ByteBuffer.allocate(pageSize);
+        int n = numEntries();
+        packed.putInt(0, n);
+        int end = pageSize;
+        for (int i = 0; i < n; i++) {
+            int offset = offset(i);
+            if (offset == 0) {
+                continue;
+            }
+            int len = length(i);
+            end -= len;
+            ByteBuffer record = data.duplicate();
+            record.position(offset);
+            record.limit(offset + len);
+            packed.position(end);
+            packed.put(record);
+            packed.putShort(HEADER_BYTES + i * SLOT_BYTES, (short) end);
+            packed.putShort(HEADER_BYTES + i * SLOT_BYTES + 2, (short) len);
+        }
+        packed.putInt(4, end == pageSize ? 0 : end);
+        packed.clear();
+        synchronized(oldDataLock)
+        {
+            data = packed;
+        }
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on page " + pid);
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        }
+        beforeWrite();
+        int offset = offset(slot);
+        int len = length(slot);
+        for (int i = offset; i < offset + len; i++) {
+            data.put(i, (byte) 0);
+        }
+        setEntry(slot, 0, 0);
+        // drop empty entries from the end of the directory
+        int n = numEntries();
+        while (n > 0 && offset(n - 1) == 0) {
+            n--;
+        }
+        data.putInt(0, n);
+        if (n == 0) {
+            data.putInt(4, 0);
+        }
+        t.setRecordId(null);
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public Tuple next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * TableStats is what the Catalog knows about a table: its number of pages
+ * and of tuples and, once {@link #compute} has looked at its tuples, a
+ * {@link ColumnStats} for each column. With these a plan can be costed:
+ * {@link #estimateSelectivity} says what fraction of the tuples a predicate
+ * keeps, and {@link #estimateScanCost} what reading the table costs.
+ * <p>
+ * Statistics are computed from a sample of the table's pages, and kept up
+ * to date by the Catalog as tuples are inserted and deleted. Those updates
+ * do not move histogram bounds or forget deleted distinct values, so once a
+ * good part of the table has changed {@link #isStale} says the statistics
+ * should be computed again. Updates by transactions that later abort are
+ * counted too; the statistics are estimates.
+ * <p>
+ * The statistics are saved with the catalog by {@link Catalog#saveCatalog},
+ * so that they are known again after a restart without scanning the table.
+ *
+ * @see Catalog#getTableStats
+ * @see Catalog#computeTableStats
+ * @Threadsafe
+ */
+public final class TableStats {
+
+    /** The number of tuples of a table that has not been counted. */
+    public static final long UNKNOWN = -1;
+
+    /** The most pages {@link #compute} reads of a table. */
+    static final int SAMPLE_PAGES = 100;
+
+    /** Changes after which statistics are stale, at least... */
+    static final long STALE_MIN = 1000;
+
+    /** ...or as a fraction of the tuples counted when they were computed. */
+    static final double STALE_FRACTION = 0.2;
+
+    private int numPages;
+    private long numTuples;
+    private final ColumnStats[] columns;
+    private final long computedTuples;
+    private long changes;
+
+    /**
+     * @param numPages the number of pages of the table
+     * @param numTuples the number of tuples of the table, or UNKNOWN
+     */
+    public TableStats(int numPages, long numTuples) {
+        this(numPages, numTuples, null, 0);
+    }
+
+    /**
+     * @param columns the statistics of each column, or null if the table's
+     *   tuples have not been looked at
+     * @param changes the tuples inserted and deleted since columns were
+     *   computed
+     */
+    TableStats(int numPages, long numTuples, ColumnStats[] columns, long changes) {
+        if (numPages < 0 || numTuples < UNKNOWN || changes < 0)
+            throw new IllegalArgumentException("bad table size " + numPages + ", " + numTuples);
+        this.numPages = numPages;
+        this.numTuples = numTuples;
+        this.columns = columns;
+        this.computedTuples = Math.max(0, numTuples);
+        this.changes = changes;
+    }
+
+    /**
+     * Compute the statistics of a table. Small tables are scanned whole
+     * with {@link HeapFile#iterator}; of larger ones SAMPLE_PAGES pages are
+     * read, in file order, and what they hold is scaled up to the size of
+     * the table.
+     *
+     * @param tid the transaction reading the table
+     * @param file the table
+     * @param samplePages the most pages to read
+     */
+    static TableStats compute(TransactionId tid, HeapFile file, int samplePages)
+        throws DbException, TransactionAbortedException {
+        TupleDesc td = file.getTupleDesc();
+        int numPages = file.numPages();
+        Collector c = new Collector(td);
+        int pagesRead;
+        if (numPages <= samplePages) {
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            try {
+                while (it.hasNext())
+                    c.add(it.next());
+            } finally {
+                it.close();
+            }
+            pagesRead = numPages;
+        } else {
+            Random r = new Random();
+            BitSet sample = new BitSet(numPages);
+            while (sample.cardinality() < samplePages)
+                sample.set(r.nextInt(numPages));
+            for (int pgNo = sample.nextSetBit(0); pgNo >= 0; pgNo = sample.nextSetBit(pgNo + 1)) {
+                Page p = Database.getBufferPool().getPage(tid, new HeapPageId(file.getId(), pgNo),
+                                                          Permissions.READ_ONLY);
+                Iterator<Tuple> it = ((TuplePage) p).iterator();
+                while (it.hasNext())
+                    c.add(it.next());
+            }
+            pagesRead = samplePages;
+        }
+        double scale = pagesRead == 0 ? 1.0 : (double) numPages / pagesRead;
+        return new TableStats(numPages, Math.round(c.rows * scale), c.finish(scale), 0);
+    }
+
+    /** Gathers the values of a table's columns during {@link #compute}. */
+    private static final class Collector {
+        final TupleDesc td;
+        final int[][] keys;
+        final Field[] min;
+        final Field[] max;
+        final HyperLogLog[] distinct;
+        int rows = 0;
+
+        Collector(TupleDesc td) {
+            this.td = td;
+            int n = td.numFields();
+            keys = new int[n][64];
+            min = new Field[n];
+            max = new Field[n];
+            distinct = new HyperLogLog[n];
+            for (int i = 0; i < n; i++)
+                distinct[i] = new HyperLogLog();
+        }
+
+        void add(Tuple t) {
+            if (rows == keys[0].length) {
+                for (int i = 0; i < keys.length; i++)
+                    keys[i] = Arrays.copyOf(keys[i], 2 * rows);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                Field f = t.getField(i);
+                keys[i][rows] = ColumnStats.key(f);
+                if (min[i] == null || f.compare(Predicate.Op.LESS_THAN, min[i]))
+                    min[i] = f;
+                if (max[i] == null || f.compare(Predicate.Op.GREATER_THAN, max[i]))
+                    max[i] = f;
+                distinct[i].add(ColumnStats.hash(f));
+            }
+            rows++;
+        }
+
+        ColumnStats[] finish(double scale) {
+            ColumnStats[] columns = new ColumnStats[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                EquiDepthHistogram h = null;
+                if (rows > 0) {
+                    Arrays.sort(keys[i], 0, rows);
+                    h = EquiDepthHistogram.fromSample(keys[i], rows, ColumnStats.NUM_BUCKETS, scale);
+                }
+                // a column whose sampled values were nearly all different
+                // is taken to be as distinct in the rest of the table; one
+                // with repeats is taken to have shown most of its values
+                long seen = distinct[i].estimate();
+                double distinctScale = seen >= 0.9 * rows ? scale : 1.0;
+                columns[i] = new ColumnStats(td.getFieldType(i), min[i], max[i], distinct[i],
+                                             distinctScale, h);
+            }
+            return columns;
+        }
+    }
+
+    public synchronized int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of tuples of the table, or UNKNOWN */
+    public synchronized long getNumTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the statistics of the given column, or null if the table's
+     *   tuples have not been looked at
+     */
+    public ColumnStats getColumnStats(int field) {
+        return columns == null ? null : columns[field];
+    }
+
+    /** @return true if there are statistics for the table's columns */
+    public boolean hasColumnStats() {
+        return columns != null;
+    }
+
+    /**
+     * @return the estimated fraction of the table's tuples for which
+     *   <code>field op constant</code> holds; 1.0 if nothing is known
+     */
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        ColumnStats c = getColumnStats(field);
+        return c == null ? 1.0 : c.estimateSelectivity(op, constant);
+    }
+
+    /**
+     * @return the estimated number of tuples a scan keeps when it keeps the
+     *   given fraction of them, or 0 if the table has not been counted
+     */
+    public synchronized long estimateTableCardinality(double selectivity) {
+        return numTuples == UNKNOWN ? 0 : Math.round(numTuples * selectivity);
+    }
+
+    /**
+     * @param ioCostPerPage the cost of reading one page
+     * @return the estimated cost of scanning the whole table
+     */
+    public synchronized double estimateScanCost(double ioCostPerPage) {
+        return numPages * ioCostPerPage;
+    }
+
+    /**
+     * @return true if so many tuples have changed since the statistics were
+     *   computed that they should be computed again
+     */
+    public synchronized boolean isStale() {
+        return changes > Math.max(STALE_MIN, computedTuples * STALE_FRACTION);
+    }
+
+    /** @return the tuples inserted and deleted since the statistics were computed */
+    synchronized long getChanges() {
+        return changes;
+    }
+
+    /** Count a tuple inserted into the table, which now has numPages pages. */
+    synchronized void addTuple(Tuple t, int numPages) {
+        this.numPages = Math.max(this.numPages, numPages);
+        if (numTuples != UNKNOWN)
+            numTuples++;
+        changes++;
+        if (columns != null) {
+            for (int i = 0; i < columns.length; i++)
+                columns[i].add(t.getField(i));
+        }
+    }
+
+    /** Count a tuple deleted from the table. */
+    synchronized void removeTuple(Tuple t) {
+        if (numTuples > 0)
+            numTuples--;
+        changes++;
+        if (columns != null) {
+            for (int i = 0; i < columns.length; i++)
+                columns[i].remove(t.getField(i));
+        }
+    }
+
+    public synchronized String toString() {
+        return numPages + " pages, " + (numTuples == UNKNOWN ? "?" : String.valueOf(numTuples)) + " tuples"
+            + (columns == null ? "" : ", " + Arrays.toString(columns));
+    }
+}
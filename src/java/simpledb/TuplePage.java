@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of tuples in one of the {@link PageFormat}s a
+ * HeapFile can store. Free space is counted in whatever unit suits the
+ * format, slots or bytes; the {@link FreeSpaceMap} only compares it with
+ * the capacity of an empty page.
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over the tuples on this page; remove is not
+     *   supported
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Add a tuple to the page and set its RecordId.
+     *
+     * @throws DbException if the tuple does not fit or has the wrong schema
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Remove a tuple from the page and clear its RecordId.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /** @return true if {@link #insertTuple} would find room for t */
+    public boolean hasRoomFor(Tuple t);
+
+    /** @return the free space on this page */
+    public int getFreeSpace();
+
+    /** @return the free space on an empty page of this format */
+    public int getCapacity();
+
+    /**
+     * @return a read-only view of the page image, for writing it out
+     *   without a copy. The view shows later changes to the page, so it
+     *   must be used while the page is locked.
+     */
+    public ByteBuffer getPageBuffer();
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). First-time pages enter the A1in
+ * FIFO; pages evicted from A1in leave their id in the A1out ghost queue.
+ * A page that misses while its id is in A1out has proven it is re-used and
+ * goes to the Am LRU queue. Hits in A1in do not promote, so a single
+ * sequential pass only ever churns A1in.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+    // iteration order is eviction order for all three queues
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    /**
+     * Sizes A1in at a quarter and A1out at half of the pool, the values
+     * recommended in the paper.
+     *
+     * @param capacity the number of pages in the pool
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param kin the target size of the A1in queue
+     * @param kout the maximum number of ids remembered in A1out
+     */
+    public TwoQueueEvictionPolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            Iterator<PageId> it = a1out.iterator();
+            while (a1out.size() > kout) {
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized void pageDiscarded(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = first(a1in, evictable);
+            return victim != null ? victim : first(am, evictable);
+        }
+        victim = first(am, evictable);
+        return victim != null ? victim : first(a1in, evictable);
+    }
+
+    private static PageId first(LinkedHashSet<PageId> queue,
+                                java.util.function.Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * VictimCache is a second-level cache of the BufferPool: copies of the
+ * clean pages the pool evicts, kept in preallocated, off-heap page-sized
+ * slots. Pages are not used from here. A page asked for again is copied
+ * back and decoded into a frame on the Java heap, which is cheaper than
+ * reading it from disk, and a pool can hold many more pages this way than
+ * its heap frames alone: the cache costs a few bytes of heap per slot,
+ * however large it is, and the garbage collector never scans it.
+ * <p>
+ * The cache is exclusive with the pool's page table. A page leaves the
+ * cache when it is taken back into the pool, so the cache never holds a
+ * copy older than the pool's. When the cache is full the slot that was
+ * filled first is reused.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy, int)
+ * @Threadsafe
+ */
+final class VictimCache {
+
+    /** Largest chunk we allocate; a single ByteBuffer cannot pass 2GB. */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final int slotsPerChunk;
+    private final ByteBuffer[] chunks;
+    private final PageId[] owners;
+    private final Map<PageId, Integer> slots = new HashMap<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private int next = 0; // next slot to reuse once none are free
+
+    /**
+     * @param numSlots the number of pages the cache holds
+     * @param pageSize the size of a page in bytes
+     */
+    VictimCache(int numSlots, int pageSize) {
+        if (numSlots < 1)
+            throw new IllegalArgumentException("victim cache must have at least one slot");
+        this.pageSize = pageSize;
+        this.slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / pageSize);
+        int numChunks = (numSlots + slotsPerChunk - 1) / slotsPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int n = Math.min(slotsPerChunk, numSlots - i * slotsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(n * pageSize);
+        }
+        owners = new PageId[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            free.add(i);
+    }
+
+    /** @return a buffer positioned at the start of the given slot */
+    private ByteBuffer slot(int slot) {
+        ByteBuffer b = chunks[slot / slotsPerChunk].duplicate();
+        b.position((slot % slotsPerChunk) * pageSize);
+        return b;
+    }
+
+    /**
+     * Store a copy of a page's image, replacing any copy of it already
+     * stored. The image is copied straight from the buffer.
+     */
+    synchronized void put(PageId pid, ByteBuffer data) {
+        if (data.remaining() != pageSize)
+            throw new IllegalArgumentException("page image is " + data.remaining() + " bytes, not " + pageSize);
+        Integer slot = slots.get(pid);
+        if (slot == null) {
+            slot = free.poll();
+            if (slot == null) {
+                slot = next;
+                next = (next + 1) % owners.length;
+                slots.remove(owners[slot]);
+            }
+            owners[slot] = pid;
+            slots.put(pid, slot);
+        }
+        slot(slot).put(data.duplicate());
+    }
+
+    /**
+     * Remove the copy of a page from the cache and return it.
+     *
+     * @return the image, or null if the cache does not hold the page
+     */
+    synchronized byte[] take(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot == null)
+            return null;
+        byte[] data = new byte[pageSize];
+        slot(slot).get(data);
+        release(slot);
+        return data;
+    }
+
+    /** @return true if the cache holds a copy of pid */
+    synchronized boolean contains(PageId pid) {
+        return slots.containsKey(pid);
+    }
+
+    /** Drop the copy of a page, if the cache holds one. */
+    synchronized void remove(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot != null)
+            release(slot);
+    }
+
+    private void release(int slot) {
+        owners[slot] = null;
+        free.add(slot);
+    }
+
+    /** @return the number of pages stored */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    /** @return the number of slots */
+    int capacity() {
+        return owners.length;
+    }
+}
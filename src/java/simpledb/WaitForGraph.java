@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WaitForGraph records which transactions each blocked transaction is
+ * waiting for. Edges are added when a lock request blocks and removed when
+ * it is granted or given up, so the graph only ever holds the current
+ * waits. As the graph is acyclic before any edge is added, a new deadlock
+ * always runs through the transaction whose edges just changed, and looking
+ * for a cycle from that transaction alone is enough.
+ *
+ * @see LockManager
+ * @Threadsafe
+ */
+class WaitForGraph {
+
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+
+    /**
+     * Replace the set of transactions waiter is waiting for.
+     *
+     * @return true if the set changed
+     */
+    synchronized boolean setWaitsFor(TransactionId waiter, Set<TransactionId> holders) {
+        Set<TransactionId> old = waitsFor.put(waiter, holders);
+        return !holders.equals(old);
+    }
+
+    /** Forget that waiter is waiting for anything. */
+    synchronized void remove(TransactionId waiter) {
+        waitsFor.remove(waiter);
+    }
+
+    /**
+     * @return the transactions on a cycle through start, beginning with
+     *   start, or null if start is not deadlocked
+     */
+    synchronized List<TransactionId> findCycle(TransactionId start) {
+        List<TransactionId> path = new ArrayList<>();
+        path.add(start);
+        return findCycle(start, start, path, new HashSet<TransactionId>()) ? path : null;
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId from,
+                              List<TransactionId> path, Set<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor.get(from);
+        if (next == null)
+            return false;
+        for (TransactionId t : next) {
+            if (t.equals(start))
+                return true;
+            if (!visited.add(t))
+                continue;
+            path.add(t);
+            if (findCycle(start, t, path, visited))
+                return true;
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,371 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Counts pages read and written, and makes each single-page read slow. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger bulkReads = new AtomicInteger();
+        // if set, writes wait for it
+        volatile CountDownLatch writeGate;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+
+        @Override
+        public ArrayList<Page> readPages(PageId first, int count) {
+            ArrayList<Page> pages = super.readPages(first, count);
+            bulkReads.incrementAndGet();
+            reads.addAndGet(pages.size());
+            return pages;
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            writes.incrementAndGet();
+            CountDownLatch gate = writeGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            super.writePage(page);
+        }
+    }
+
+    /** Upper bound on the time the background writer needs to catch up. */
+    private static final int TIMEOUT = 5000;
+
+    private SlowHeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 4, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        hf = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Threads that miss on the same page at once must share a single read.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final Page[] pages = new Page[8];
+        Thread[] threads = new Thread[pages.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        pages[n] = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(1, hf.reads.get());
+        for (Page p : pages)
+            assertEquals(pages[0], p);
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * A pinned page must never be chosen for eviction.
+     */
+    @Test public void pinnedPagesStay() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        Page p0 = bp.pinPage(tid, pid(0), Permissions.READ_ONLY, null);
+        Page p1 = bp.pinPage(tid, pid(1), Permissions.READ_ONLY, null);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected DbException, every frame is pinned");
+        } catch (DbException e) {
+        }
+
+        bp.unpinPage(p0);
+        assertNotNull(bp.getPage(tid, pid(2), Permissions.READ_ONLY));
+        int reads = hf.reads.get();
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(reads, hf.reads.get());
+        bp.unpinPage(p1);
+    }
+
+    /**
+     * Flushing a transaction's pages logs them and writes them (FORCE).
+     */
+    @Test public void flushPagesWritesPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Page p = bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        bp.flushPages(tid);
+        assertNull(p.isDirty());
+        assertEquals(1, hf.writes.get());
+
+        bp.transactionComplete(tid);
+        assertEquals(1, hf.writes.get());
+    }
+
+    /**
+     * A commit writes its pages without holding the pool's lock, so the
+     * pool can be used while the writes are under way.
+     */
+    @Test public void commitWritesOutsidePoolLock() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Page p = bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        hf.writeGate = new CountDownLatch(1);
+        Thread commit = new Thread() {
+            public void run() {
+                try {
+                    bp.transactionComplete(tid);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        commit.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (hf.writes.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, hf.writes.get());
+
+        Thread other = new Thread() {
+            public void run() {
+                bp.discardPage(pid(1));
+            }
+        };
+        other.start();
+        other.join(TIMEOUT);
+        assertFalse(other.isAlive());
+        assertTrue(commit.isAlive());
+
+        hf.writeGate.countDown();
+        commit.join(TIMEOUT);
+        assertNull(p.isDirty());
+    }
+
+    /**
+     * A committed change survives the loss of the pool right after the
+     * commit returns, as in a crash.
+     */
+    @Test public void commitSurvivesCrash() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        int empty = p.getNumEmptySlots();
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, tid);
+        bp.transactionComplete(tid);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        p = (HeapPage) bp.getPage(reader, pid(0), Permissions.READ_ONLY);
+        assertEquals(empty + 1, p.getNumEmptySlots());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A page with uncommitted changes must not be evicted (NO STEAL).
+     */
+    @Test public void uncommittedPagesStay() throws Exception {
+        BufferPool bp = Database.resetBufferPool(1);
+        bp.getPage(tid, pid(0), Permissions.READ_WRITE).markDirty(true, tid);
+        try {
+            bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+            fail("expected DbException, the only page is dirty");
+        } catch (DbException e) {
+        }
+        assertEquals(0, hf.writes.get());
+    }
+
+    /**
+     * A page read ahead of its use is read once, and asking for it is a hit.
+     */
+    @Test public void prefetchedPageIsHit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.prefetch(pid(0), 1, null);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (bp.getPrefetchCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, bp.getPrefetchCount());
+
+        assertNotNull(bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertEquals(1, hf.reads.get());
+        assertEquals(0, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * A run of pages read ahead comes in with a single read.
+     */
+    @Test public void prefetchReadsRunAtOnce() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.prefetch(pid(1), 3, null);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (bp.getPrefetchCount() < 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(3, bp.getPrefetchCount());
+        assertEquals(1, hf.bulkReads.get());
+
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+        assertEquals(4, hf.reads.get());
+    }
+
+    /**
+     * A page read ahead into a ring and written before the scan locks it is
+     * read again, not returned as it was.
+     */
+    @Test public void staleReadAheadIsDropped() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ScanRing ring = new ScanRing(4);
+        bp.prefetch(pid(0), 1, ring);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (bp.getPrefetchCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, bp.getPrefetchCount());
+
+        TransactionId writer = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(writer, pid(0), Permissions.READ_WRITE);
+        int empty = p.getNumEmptySlots();
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, writer);
+        bp.transactionComplete(writer);
+        bp.discardPage(pid(0));
+
+        p = (HeapPage) bp.pinPage(tid, pid(0), Permissions.READ_ONLY, ring);
+        assertEquals(empty + 1, p.getNumEmptySlots());
+    }
+
+    /**
+     * Pages evicted from a pool with a victim cache come back from the
+     * cache, not from disk.
+     */
+    @Test public void victimCacheServesEvictedPages() throws Exception {
+        BufferPool bp = new BufferPool(2, EvictionPolicy.create("clock", 2), 8);
+        byte[] first = bp.getPage(tid, pid(0), Permissions.READ_ONLY).getPageData();
+        for (int i = 1; i < 4; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertEquals(4, hf.reads.get());
+
+        Page again = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(4, hf.reads.get());
+        assertEquals(1, bp.getOffHeapHitCount());
+        assertArrayEquals(first, again.getPageData());
+    }
+
+    /**
+     * A pool can be warmed up from the list of pages saved by another.
+     */
+    @Test public void residentPagesSurviveRestart() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 2; i >= 0; i--)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        File saved = File.createTempFile("resident", ".pages");
+        saved.deleteOnExit();
+        assertEquals(3, bp.saveResidentPages(saved));
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int bulkReads = hf.bulkReads.get();
+        assertEquals(3, bp.loadResidentPages(saved));
+        assertEquals(6, hf.reads.get());
+        assertEquals(bulkReads + 1, hf.bulkReads.get());
+        for (int i = 0; i < 3; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertEquals(6, hf.reads.get());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * A table that keeps all of its pages is not pushed out by another.
+     */
+    @Test public void quotaKeepsTableResident() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 992 * 8, null, null);
+        Database.getCatalog().setBufferQuota(hf.getId(),
+            new BufferQuota(BufferQuota.Priority.HIGH, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        for (int i = 0; i < 8; i++)
+            bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(2, hf.reads.get());
+    }
+
+    /**
+     * A table at its maximum replaces its own pages.
+     */
+    @Test public void quotaCapsTable() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 992 * 8, null, null);
+        Database.getCatalog().setBufferQuota(other.getId(),
+            new BufferQuota(BufferQuota.Priority.NORMAL, 0, 1));
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        for (int i = 0; i < 8; i++)
+            bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(2, hf.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -1,7 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +100,155 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that HeapFiles get small ids of their own, the same for the
+     * same file, and are found by them
+     */
+    @Test public void denseHeapFileIds() throws Exception {
+        File f1 = File.createTempFile("catalog", ".dat");
+        File f2 = File.createTempFile("catalog", ".dat");
+        f1.deleteOnExit();
+        f2.deleteOnExit();
+        HeapFile hf1 = new HeapFile(f1, Utility.getTupleDesc(2));
+        HeapFile hf2 = new HeapFile(f2, Utility.getTupleDesc(2));
+        assertTrue(hf1.getId() >= 0 && hf1.getId() < Catalog.MAX_ARRAY_ID);
+        assertTrue(hf1.getId() != hf2.getId());
+        assertEquals(hf1.getId(), new HeapFile(f1, Utility.getTupleDesc(3)).getId());
+
+        Database.getCatalog().addTable(hf1, "dense1");
+        Database.getCatalog().addTable(hf2, "dense2");
+        assertEquals(hf1, Database.getCatalog().getDatabaseFile(hf1.getId()));
+        assertEquals("dense2", Database.getCatalog().getTableName(hf2.getId()));
+        Database.getCatalog().clear();
+        try {
+            Database.getCatalog().getDatabaseFile(hf1.getId());
+            Assert.fail("Should not find table after clear");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
+    /**
+     * Check that a saved catalog is read back with the same tables, ids
+     * and statistics
+     */
+    @Test public void saveAndLoadCatalog() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File cat = new File(dir, "catalog.bin");
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                                     new String[] { "id", "name" });
+        HeapFile heap = new HeapFile(new File(dir, "a.dat"), td);
+        HeapFile slotted = new HeapFile(new File(dir, "b.dat"), td, true, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(heap, "a", "id");
+        Database.getCatalog().addTable(slotted, "b");
+        Database.getCatalog().setTableStats(heap.getId(), new TableStats(3, 42));
+        Database.getCatalog().saveCatalog(cat);
+
+        Database.reset();
+        Database.getCatalog().loadSchema(cat.getPath());
+        Catalog c = Database.getCatalog();
+        assertEquals(heap.getId(), c.getTableId("a"));
+        assertEquals(slotted.getId(), c.getTableId("b"));
+        assertEquals(td, c.getTupleDesc(heap.getId()));
+        assertEquals("name", c.getTupleDesc(heap.getId()).getFieldName(1));
+        assertEquals("id", c.getPrimaryKey(heap.getId()));
+        HeapFile b = (HeapFile) c.getDatabaseFile(slotted.getId());
+        assertEquals(PageFormat.SLOTTED, b.getPageFormat());
+        assertTrue(b.isMapped());
+        assertEquals(42, c.getTableStats(heap.getId()).getNumTuples());
+        assertEquals(TableStats.UNKNOWN, c.getTableStats(slotted.getId()).getNumTuples());
+    }
+
+    /**
+     * Check that a damaged catalog file is refused without adding tables
+     */
+    @Test public void corruptCatalog() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File cat = new File(dir, "catalog.bin");
+        Database.getCatalog().addTable(new HeapFile(new File(dir, "a.dat"), Utility.getTupleDesc(2)), "a");
+        Database.getCatalog().saveCatalog(cat);
+        RandomAccessFile raf = new RandomAccessFile(cat, "rw");
+        raf.seek(raf.length() - 1);
+        raf.write(raf.read() ^ 1);
+        raf.close();
+
+        Database.reset();
+        try {
+            Database.getCatalog().loadCatalog(cat);
+            Assert.fail("Should not load a corrupt catalog");
+        } catch (IOException e) {
+            // Expected to get here
+        }
+        assertFalse(Database.getCatalog().tableIdIterator().hasNext());
+    }
+
+    /**
+     * Check that a catalog whose ids belong to other files in this process
+     * is refused without adding tables
+     */
+    @Test public void conflictingCatalogIds() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File cat = new File(dir, "catalog.bin");
+        Database.getCatalog().addTable(new HeapFile(new File(dir, "a.dat"), Utility.getTupleDesc(2)), "a");
+        Database.getCatalog().saveCatalog(cat);
+
+        // the same catalog elsewhere names other files with the same ids
+        File copy = new File(Files.createTempDirectory("catalog").toFile(), "catalog.bin");
+        Files.copy(cat.toPath(), copy.toPath());
+        Database.reset();
+        try {
+            Database.getCatalog().loadCatalog(copy);
+            Assert.fail("Should not load a catalog with conflicting ids");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("conflict"));
+        }
+        assertFalse(Database.getCatalog().tableIdIterator().hasNext());
+    }
+
+    /**
+     * Check that a schema loads when its table ids cannot be read or saved
+     */
+    @Test public void schemaWithoutIdFile() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("t (a int, b string)\n");
+        w.close();
+        // a directory where the id file should be can be neither read nor replaced
+        File ids = new File(dir, "schema.txt.ids");
+        assertTrue(ids.mkdir());
+        assertTrue(new File(ids, "x").createNewFile());
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        int id = Database.getCatalog().getTableId("t");
+        assertEquals(new File(dir, "t.dat").getAbsoluteFile(),
+                     ((HeapFile) Database.getCatalog().getDatabaseFile(id)).getFile().getAbsoluteFile());
+        assertTrue(ids.isDirectory());
+    }
+
+    /**
+     * Check that an invalid schema line is reported instead of exiting
+     */
+    @Test public void invalidSchemaLine() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("good (a int, b string)\nbad (a float)\n");
+        w.close();
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            Assert.fail("Should not load an invalid schema");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(":2:"));
+        }
+        try {
+            Database.getCatalog().getTableId("good");
+            Assert.fail("Should not add tables of an invalid schema");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
     /**
      * JUnit suite target
      */
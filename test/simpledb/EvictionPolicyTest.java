@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static void add(EvictionPolicy policy, int... pgNos) {
+        for (int pgNo : pgNos)
+            policy.pageAdded(pid(pgNo));
+    }
+
+    private static PageId evict(EvictionPolicy policy) {
+        PageId victim = policy.chooseVictim(p -> true);
+        policy.pageRemoved(victim);
+        return victim;
+    }
+
+    @Test public void emptyPolicies() {
+        for (String name : new String[] { "clock", "lru-k", "2q", "arc" })
+            assertNull(EvictionPolicy.create(name, 4).chooseVictim(p -> true));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: referenced pages get a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockEvictionPolicy(3);
+        add(policy, 0, 1, 2);
+        policy.pageHit(pid(0));
+        assertEquals(pid(1), evict(policy));
+        add(policy, 3);
+        policy.pageHit(pid(2));
+        assertEquals(pid(0), evict(policy));
+    }
+
+    /**
+     * Pages the pool cannot evict right now must be skipped.
+     */
+    @Test public void skipsUnevictable() {
+        for (String name : new String[] { "clock", "lru-k", "2q", "arc" }) {
+            EvictionPolicy policy = EvictionPolicy.create(name, 2);
+            add(policy, 0, 1);
+            assertEquals(pid(1), policy.chooseVictim(p -> !p.equals(pid(0))));
+            assertNull(policy.chooseVictim(p -> false));
+        }
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: pages seen once go before pages seen
+     * twice, even if the latter were touched longer ago.
+     */
+    @Test public void lruK() {
+        EvictionPolicy policy = new LruKEvictionPolicy(3, 2);
+        add(policy, 0, 1);
+        policy.pageHit(pid(0));
+        policy.pageHit(pid(1));
+        add(policy, 2);
+        assertEquals(pid(2), evict(policy));
+        assertEquals(pid(0), evict(policy));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy: a page that comes back while its
+     * id is in A1out is kept in Am and outlives later one-off pages.
+     */
+    @Test public void twoQueue() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy(1, 2);
+        add(policy, 0, 1);
+        assertEquals(pid(0), evict(policy));
+        add(policy, 0);
+        add(policy, 2, 3, 4);
+        assertEquals(pid(1), evict(policy));
+        assertEquals(pid(2), evict(policy));
+        assertEquals(pid(3), evict(policy));
+        assertEquals(pid(0), evict(policy));
+    }
+
+    /**
+     * Unit test for ArcEvictionPolicy: a ghost hit in B1 grows the T1 target.
+     */
+    @Test public void arc() {
+        ArcEvictionPolicy policy = new ArcEvictionPolicy(2);
+        add(policy, 0, 1);
+        policy.pageHit(pid(1));
+        assertEquals(pid(0), evict(policy));
+        assertEquals(0, policy.getTarget());
+        add(policy, 0);
+        assertTrue(policy.getTarget() > 0);
+    }
+
+    /**
+     * A discarded page leaves no ghost behind, so reading it back is a
+     * plain miss and does not move the T1 target.
+     */
+    @Test public void arcForgetsDiscardedPages() {
+        ArcEvictionPolicy policy = new ArcEvictionPolicy(2);
+        add(policy, 0, 1);
+        policy.pageHit(pid(1));
+        policy.pageDiscarded(pid(0));
+        add(policy, 0);
+        assertEquals(0, policy.getTarget());
+        assertEquals(pid(0), evict(policy));
+    }
+
+    /**
+     * A page discarded while it is still being read must not reach the
+     * policy once the read finishes, or the policy keeps a ghost of it.
+     */
+    @Test public void discardedWhileLoading() {
+        EvictionPolicy policy = new ClockEvictionPolicy(1);
+        PageTable table = new PageTable(1, policy);
+        Frame frame = table.pin(pid(0));
+        table.remove(pid(0));
+        table.loaded(frame, null);
+        assertNull(policy.chooseVictim(p -> true));
+        table.loaded(table.pin(pid(1)), null);
+        assertEquals(pid(1), policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Scanning a table larger than the pool must evict instead of growing
+     * without bound, and the counters must add up.
+     */
+    @Test public void poolStaysWithinCapacity() throws Exception {
+        for (String name : new String[] { "clock", "lru-k", "2q", "arc" }) {
+            Database.reset();
+            BufferPool bp = new BufferPool(5, EvictionPolicy.create(name, 5));
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 12, null, tuples);
+            TransactionId tid = new TransactionId();
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < f.numPages(); i++)
+                    bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            }
+            assertEquals(24, bp.getHitCount() + bp.getMissCount());
+            assertEquals(bp.getMissCount() - 5, bp.getEvictionCount());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -62,6 +62,16 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         // assertEquals(1, empty.numPages());
     }
 
+    /**
+     * The page count follows pages appended through writePage.
+     */
+    @Test
+    public void numPagesAfterAppend() throws Exception {
+        assertEquals(1, hf.numPages());
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 1), HeapPage.createEmptyPageData()));
+        assertEquals(2, hf.numPages());
+    }
+
     /**
      * Unit test for HeapFile.readPage()
      */
@@ -77,6 +87,34 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * A memory-mapped HeapFile reads the same pages, which can be changed
+     * without changing the mapping, and sees pages added after it first
+     * mapped the file.
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+
+        // a page decoded on the mapping can still be changed, on its own copy
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        int empty = page.getNumEmptySlots();
+        page.deleteTuple(page.iterator().next());
+        assertEquals(empty + 1, page.getNumEmptySlots());
+        assertEquals(empty, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        try {
+            mapped.readPage(next);
+            fail("expected exception, the file has one page");
+        } catch (IllegalArgumentException e) {
+        }
+        hf.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) mapped.readPage(next)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
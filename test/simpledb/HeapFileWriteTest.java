@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileWriteTest extends SimpleDbTestBase {
+    /** slots on a page of two int fields */
+    private static final int SLOTS = 504;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts fill the first page before a second one is appended.
+     */
+    @Test
+    public void insertFillsPageThenAppends() throws Exception {
+        for (int i = 0; i < SLOTS; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            assertEquals(0, t.getRecordId().getPageId().pageNumber());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertEquals(1, hf.numPages());
+
+        Tuple t = Utility.getHeapTuple(SLOTS, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * The slot of a deleted tuple is the next one filled.
+     */
+    @Test
+    public void deletedSlotIsReused() throws Exception {
+        Tuple[] tuples = new Tuple[SLOTS + 1];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuples[i]);
+        }
+        RecordId freed = tuples[7].getRecordId();
+        Database.getBufferPool().deleteTuple(tid, tuples[7]);
+        assertNull(tuples[7].getRecordId());
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(freed, t.getRecordId());
+    }
+
+    /**
+     * The free-space map is saved on close, and read back instead of being
+     * rebuilt.
+     */
+    @Test
+    public void freeSpaceMapSurvivesClose() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        hf.close();
+
+        File side = new File(hf.getFile().getPath() + ".fsm");
+        assertTrue(side.exists());
+        side.deleteOnExit();
+        FreeSpaceMap fsm = FreeSpaceMap.load(side, hf.numPages());
+        assertNotNull(fsm);
+        assertEquals(FreeSpaceMap.level(SLOTS - 10, SLOTS), fsm.getLevel(0));
+        // a map for another length of file is not used
+        assertNull(FreeSpaceMap.load(side, hf.numPages() + 1));
+        tid = new TransactionId();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
@@ -76,6 +76,38 @@ public class HeapPageIdTest extends SimpleDbTestBase {
         assertFalse(pid2.equals(pid1Copy));
     }
 
+    /**
+     * Unit test for HeapPageId.pack() and HeapPageId.unpack()
+     */
+    @Test public void pack() {
+        int[][] ids = { { 1, 1 }, { -1, 0 }, { 0, -1 }, { Integer.MIN_VALUE, Integer.MAX_VALUE } };
+        for (int[] id : ids) {
+            HeapPageId p = new HeapPageId(id[0], id[1]);
+            HeapPageId q = HeapPageId.unpack(p.pack());
+            assertEquals(id[0], q.getTableId());
+            assertEquals(id[1], q.pageNumber());
+            assertEquals(p, q);
+        }
+        assertFalse(new HeapPageId(1, 2).pack() == new HeapPageId(2, 1).pack());
+    }
+
+    /**
+     * Neighbouring pages of a few tables spread over the buckets of a hash
+     * table.
+     */
+    @Test public void hashSpread() {
+        int buckets = 1024;
+        int[] counts = new int[buckets];
+        for (int table = 0; table < 4; table++) {
+            for (int pgNo = 0; pgNo < buckets / 4; pgNo++)
+                counts[new HeapPageId(table, pgNo).hashCode() & (buckets - 1)]++;
+        }
+        int max = 0;
+        for (int c : counts)
+            max = Math.max(max, c);
+        assertTrue("up to " + max + " keys in one bucket", max <= 8);
+    }
+
     /**
      * JUnit suite target
      */
@@ -12,7 +12,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +122,88 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and HeapPage.getInt()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; ++row) {
+            assertEquals(EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), page.getField(row, 1));
+        }
+        assertNull(page.getTuple(20));
+    }
+
+    /**
+     * A predicate that answers its getters itself, so that the test does
+     * not depend on Predicate's own implementation.
+     */
+    private static class FieldPredicate extends Predicate {
+        private final int field;
+        private final Op op;
+        private final Field operand;
+
+        FieldPredicate(int field, Op op, Field operand) {
+            super(field, op, operand);
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public int getField() {
+            return field;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public Field getOperand() {
+            return operand;
+        }
+
+        public boolean filter(Tuple t) {
+            return t.getField(field).compare(op, operand);
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.filter(): on every used slot of a page with
+     * gaps, it agrees with the predicate applied to the decoded tuple, and
+     * it refuses empty slots.
+     */
+    @Test public void filterMatchesTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row += 3)
+            page.deleteTuple(page.getTuple(row));
+
+        int[] operands = { EXAMPLE_VALUES[4][0], EXAMPLE_VALUES[7][1], 0, 40000, Integer.MAX_VALUE };
+        int checked = 0;
+        for (int field = 0; field < 2; field++) {
+            for (Predicate.Op op : Predicate.Op.values()) {
+                for (int v : operands) {
+                    Predicate p = new FieldPredicate(field, op, new IntField(v));
+                    for (int slot = 0; slot < EXAMPLE_VALUES.length + 2; slot++) {
+                        Tuple t = page.getTuple(slot);
+                        if (t == null) {
+                            try {
+                                page.filter(slot, p);
+                                Assert.fail("filter should refuse empty slot " + slot);
+                            } catch (NoSuchElementException e) {
+                                // Expected to get here
+                            }
+                            continue;
+                        }
+                        assertEquals(field + " " + op + " " + v + " on slot " + slot,
+                                     p.filter(t), page.filter(slot, p));
+                        checked++;
+                    }
+                }
+            }
+        }
+        assertEquals(2 * Predicate.Op.values().length * operands.length * 13, checked);
+    }
+
     /**
      * JUnit suite target
      */
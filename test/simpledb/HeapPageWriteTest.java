@@ -0,0 +1,111 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A page never writes to the array it was built from, and its before
+     * image stays as it was until setBeforeImage.
+     */
+    @Test public void beforeImageIsCopyOnWrite() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        page.insertTuple(t);
+        assertEquals(483, page.getNumEmptySlots());
+        assertEquals(7, page.getInt(t.getRecordId().tupleno(), 0));
+
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, data));
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+        page.deleteTuple(t);
+        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() and HeapPage.getPageBuffer()
+     */
+    @Test public void pageDataRoundTrips() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+
+        byte[] image = page.getPageData();
+        byte[] view = new byte[image.length];
+        page.getPageBuffer().get(view);
+        assertTrue(Arrays.equals(image, view));
+
+        HeapPage copy = new HeapPage(pid, image);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 10; i++)
+            assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.nextUsedSlot() on a full, then a sparse page
+     */
+    @Test public void walkSparsePage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] tuples = new Tuple[504];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(tuples[i]);
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(Utility.getHeapTuple(-1, 2));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        int[] keep = { 3, 63, 64, 200, 503 };
+        for (int i = 0; i < tuples.length; i++) {
+            if (Arrays.binarySearch(keep, i) < 0)
+                page.deleteTuple(tuples[i]);
+        }
+        assertEquals(504 - keep.length, page.getNumEmptySlots());
+
+        int slot = page.nextUsedSlot(0);
+        for (int k : keep) {
+            assertEquals(k, slot);
+            slot = page.nextUsedSlot(slot + 1);
+        }
+        assertEquals(-1, slot);
+
+        // the freed slots are reused from the front
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().tupleno());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
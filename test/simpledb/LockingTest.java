@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+    /** Time to wait before checking the state of a lock grabber. */
+    private static final int WAIT = 100;
+    /** Upper bound on the time a lock grabber needs once it can proceed. */
+    private static final int TIMEOUT = 5000;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Start a thread that asks for a lock, and check after a short wait
+     * whether it got it.
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+                                          boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(WAIT);
+        assertEquals(expected, t.acquired());
+        return t;
+    }
+
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p0, Permissions.READ_ONLY, true);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void acquireReadWriteLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        bp.transactionComplete(tid1);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void acquireWriteReadLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        grabLock(tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void acquireReadWriteLocksOnTwoPages() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void lockUpgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid1, p0, Permissions.READ_WRITE, true);
+        grabLock(tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void releasePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        grabLock(tid2, p0, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * Two transactions that each wait for the other's page: the younger one
+     * must be aborted, and the older one must then get its lock.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber older = grabLock(tid1, p1, Permissions.READ_WRITE, false);
+        TestUtil.LockGrabber younger = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(TIMEOUT);
+        older.join(TIMEOUT);
+
+        assertFalse(younger.acquired());
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertTrue(older.acquired());
+        assertEquals(1, bp.getDeadlockCount());
+        assertTrue(bp.getDeadlockDetectionCount() >= 1);
+    }
+
+    /**
+     * A lock upgrade deadlock: both transactions read a page, then both try
+     * to write it.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber older = grabLock(tid1, p0, Permissions.READ_WRITE, false);
+        TestUtil.LockGrabber younger = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(TIMEOUT);
+        older.join(TIMEOUT);
+
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertTrue(older.acquired());
+    }
+
+    /**
+     * Locks that nobody holds or waits for leave no entry in the lock table.
+     */
+    @Test public void releasedLocksAreDropped() throws Exception {
+        LockManager lm = new LockManager();
+        for (int i = 0; i < 100; i++) {
+            lm.acquire(tid1, new HeapPageId(p0.getTableId(), i),
+                       i % 2 == 0 ? Permissions.READ_ONLY : Permissions.READ_WRITE);
+        }
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(100, lm.size());
+        lm.releaseAll(tid1);
+        assertEquals(1, lm.size());
+        assertTrue(lm.holdsLock(tid2, p0));
+        lm.release(tid2, p0);
+        assertEquals(0, lm.size());
+        assertEquals(0, lm.transactionCount());
+
+        // a lock taken and released on its own leaves nothing behind either
+        assertTrue(lm.tryAcquireShared(tid1, p1));
+        lm.release(tid1, p1);
+        assertEquals(0, lm.size());
+        assertEquals(0, lm.transactionCount());
+    }
+
+    /**
+     * Entries dropped while other threads ask for the same locks never let
+     * two writers in at once, and are all gone at the end.
+     */
+    @Test public void lockChurn() throws Exception {
+        final LockManager lm = new LockManager();
+        final PageId[] pages = { p0, p1 };
+        final AtomicInteger[] writers = { new AtomicInteger(), new AtomicInteger() };
+        final AtomicInteger overlaps = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 2000; j++) {
+                        TransactionId tid = new TransactionId();
+                        int page = (n + j) % 2;
+                        boolean write = j % 3 == 0;
+                        try {
+                            lm.acquire(tid, pages[page], write ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                            if (write && writers[page].incrementAndGet() > 1)
+                                overlaps.incrementAndGet();
+                            if (write)
+                                writers[page].decrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            // single-page transactions never deadlock
+                            overlaps.incrementAndGet();
+                        } finally {
+                            lm.releaseAll(tid);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join(TIMEOUT * 4);
+            assertFalse(t.isAlive());
+        }
+        assertEquals(0, overlaps.get());
+        assertEquals(0, lm.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
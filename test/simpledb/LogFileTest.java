@@ -0,0 +1,113 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    /**
+     * Concurrent commits all return once forced, and never need more
+     * forces than there are commits.
+     */
+    @Test
+    public void concurrentCommits() throws Exception {
+        File f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        final int threads = 8;
+        final int commits = 50;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < commits; j++)
+                            log.logCommit(new TransactionId());
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        assertNull(error.get());
+        assertEquals(threads * commits, log.getTotalRecords());
+        assertTrue(log.getForceCount() >= 1);
+        assertTrue(log.getForceCount() <= threads * commits);
+    }
+
+    /**
+     * Committing a transaction that changed a page logs the page and a
+     * commit record, and forces the log.
+     */
+    @Test
+    public void transactionCompleteLogsCommit() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        LogFile log = Database.getLogFile();
+        int records = log.getTotalRecords();
+        int forces = log.getForceCount();
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(records + 2, log.getTotalRecords());
+        assertTrue(log.getForceCount() > forces);
+
+        // a read-only transaction logs nothing
+        tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(records + 2, log.getTotalRecords());
+    }
+
+    /**
+     * After a force fails, every later force fails too, and the flusher
+     * stops instead of retrying.
+     */
+    @Test
+    public void failedForceStopsFlusher() throws Exception {
+        File f = File.createTempFile("log", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f) {
+            @Override
+            void forceFile(RandomAccessFile file) throws IOException {
+                throw new IOException("injected");
+            }
+        };
+        try {
+            log.logCommit(new TransactionId());
+            fail("commit should fail when the log cannot be forced");
+        } catch (IOException e) {
+            // Expected to get here
+        }
+        LogFlusher flusher = log.getFlusher();
+        flusher.join(5000);
+        assertFalse(flusher.isAlive());
+        try {
+            log.force();
+            fail("force should keep failing");
+        } catch (IOException e) {
+            assertEquals("injected", e.getCause().getMessage());
+        }
+        assertEquals(0, log.getForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
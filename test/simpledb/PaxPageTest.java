@@ -0,0 +1,99 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = Utility.getTupleDesc(3);
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i) {
+        return Utility.getHeapTuple(new int[] { i, 10 * i, 100 * i });
+    }
+
+    /**
+     * Each field is stored in its own minipage, and the page round trips.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 50; i++)
+            page.insertTuple(tuple(i));
+
+        byte[] image = page.getPageData();
+        int numSlots = page.getCapacity();
+        int headerSize = (numSlots + 7) / 8;
+        ByteBuffer column1 = ByteBuffer.wrap(image, headerSize + numSlots * 4, 50 * 4).slice();
+        for (int i = 0; i < 50; i++)
+            assertEquals(10 * i, column1.getInt(4 * i));
+
+        PaxPage copy = new PaxPage(pid, image);
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = it.next();
+            for (int j = 0; j < 3; j++)
+                assertEquals(tuple(i).getField(j), t.getField(j));
+        }
+        assertFalse(it.hasNext());
+
+        int[] values = new int[numSlots];
+        page.deleteTuple(page.getTuple(3));
+        assertEquals(49, page.readInts(2, values));
+        assertEquals(400, values[3]);
+        assertTrue(page.getBeforeImage() instanceof PaxPage);
+        assertEquals(numSlots, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * A PaxFile written by the encoder returns just the fields asked for.
+     */
+    @Test public void projectedScan() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 1000; i++)
+            w.println(i + "," + (10 * i) + "," + (100 * i));
+        w.close();
+        File data = File.createTempFile("pax", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3, Utility.getTypes(3), ',', PageFormat.PAX);
+
+        PaxFile pf = new PaxFile(data, TD);
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pf.iterator(tid, new int[] { 2, 0 });
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            int i = ((IntField) t.getField(1)).getValue();
+            assertEquals(100 * i, ((IntField) t.getField(0)).getValue());
+            n++;
+        }
+        it.close();
+        assertEquals(1000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
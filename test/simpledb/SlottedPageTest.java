@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static void assertTuple(int i, String s, Tuple t) {
+        assertEquals(i, ((IntField) t.getField(0)).getValue());
+        assertEquals(s, ((StringField) t.getField(1)).getValue());
+    }
+
+    /**
+     * Short strings fit several times as many tuples as on a HeapPage,
+     * and read back unchanged.
+     */
+    @Test public void fillWithShortStrings() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "s" + n))) {
+            page.insertTuple(tuple(n, "s" + n));
+            n++;
+        }
+        int heapSlots = PageFormat.HEAP.capacity(TD);
+        assertTrue(n + " tuples", n > 3 * heapSlots);
+        try {
+            page.insertTuple(tuple(n, "s" + n));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTuple(i, "s" + i, t);
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused once the page is compacted, and the
+     * remaining tuples keep their slots.
+     */
+    @Test public void compactKeepsSlots() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        String s = "0123456789";
+        while (page.hasRoomFor(tuple(0, s))) {
+            Tuple t = tuple(tuples.size(), s);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+
+        // twice as long: only fits in the holes after compaction
+        String longer = s + s;
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(-1, longer))) {
+            page.insertTuple(tuple(-1, longer));
+            inserted++;
+        }
+        assertTrue(inserted > tuples.size() / 5);
+
+        for (int i = 1; i < tuples.size(); i += 2)
+            assertTuple(i, s, page.getTuple(i));
+    }
+
+    /**
+     * A before image is kept while the page changes.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        Tuple t = tuple(2, "two");
+        page.insertTuple(t);
+        page.deleteTuple(page.getTuple(0));
+
+        Iterator<Tuple> before = page.getBeforeImage().iterator();
+        assertTuple(1, "one", before.next());
+        assertFalse(before.hasNext());
+        Iterator<Tuple> after = page.iterator();
+        assertTuple(2, "two", after.next());
+        assertFalse(after.hasNext());
+    }
+
+    /**
+     * The encoder writes slotted files, which a HeapFile reads and extends.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 1000; i++)
+            w.println(i + ",name" + i);
+        w.close();
+
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+        File heap = File.createTempFile("heap", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 2, types, ',', PageFormat.HEAP);
+        File slotted = File.createTempFile("slotted", ".dat");
+        slotted.deleteOnExit();
+        HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), 2, types, ',', PageFormat.SLOTTED);
+        assertTrue(slotted.length() * 4 < heap.length());
+
+        HeapFile hf = new HeapFile(slotted, TD, false, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000, "name1000"));
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[1001];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTuple(i, "name" + i, t);
+            seen[i] = true;
+        }
+        it.close();
+        for (boolean b : seen)
+            assertTrue(b);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TableStatsTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Fill a table with field 0 running from 0 to ROWS - 1 and field 1
+     * taking ten values.
+     */
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 10));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void computeFromScan() throws Exception {
+        TableStats stats = Database.getCatalog().computeTableStats(tid, hf.getId());
+        assertSame(stats, Database.getCatalog().getTableStats(hf.getId()));
+        assertEquals(hf.numPages(), stats.getNumPages());
+        assertEquals(ROWS, stats.getNumTuples());
+
+        ColumnStats c0 = stats.getColumnStats(0);
+        assertEquals(new IntField(0), c0.getMin());
+        assertEquals(new IntField(ROWS - 1), c0.getMax());
+        assertEquals(ROWS, c0.getDistinctCount(), ROWS * 0.05);
+        assertEquals(10, stats.getColumnStats(1).getDistinctCount());
+
+        assertEquals(0.5, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)), 0.02);
+        assertEquals(0.25, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS * 3 / 4)), 0.02);
+        assertEquals(0.0, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)), 0.0);
+        assertEquals(0.1, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        assertEquals(0.0, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(42)), 0.0);
+        assertEquals(ROWS / 10, stats.estimateTableCardinality(0.1));
+    }
+
+    @Test
+    public void computeFromSample() throws Exception {
+        int numPages = hf.numPages();
+        assertTrue(numPages > 2);
+        TableStats stats = TableStats.compute(tid, hf, 2);
+        assertEquals(numPages, stats.getNumPages());
+        assertEquals(ROWS, stats.getNumTuples(), ROWS * 0.1);
+        assertEquals(ROWS, stats.getColumnStats(0).getDistinctCount(), ROWS * 0.15);
+        assertEquals(10, stats.getColumnStats(1).getDistinctCount());
+    }
+
+    @Test
+    public void refreshIncrementally() throws Exception {
+        TableStats stats = Database.getCatalog().computeTableStats(tid, hf.getId());
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(ROWS * 2));
+        t.setField(1, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(ROWS + 1, stats.getNumTuples());
+        assertEquals(new IntField(ROWS * 2), stats.getColumnStats(0).getMax());
+        assertTrue(stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)) > 0);
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(ROWS, stats.getNumTuples());
+        assertFalse(stats.isStale());
+    }
+
+    @Test
+    public void savedWithCatalog() throws Exception {
+        Database.getCatalog().computeTableStats(tid, hf.getId());
+        File cat = new File(Files.createTempDirectory("catalog").toFile(), "catalog.bin");
+        Database.getCatalog().saveCatalog(cat);
+
+        Database.reset();
+        Database.getCatalog().loadCatalog(cat);
+        TableStats stats = Database.getCatalog().getTableStats(hf.getId());
+        assertEquals(ROWS, stats.getNumTuples());
+        assertEquals(new IntField(ROWS - 1), stats.getColumnStats(0).getMax());
+        assertEquals(10, stats.getColumnStats(1).getDistinctCount());
+        assertEquals(0.5, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)), 0.02);
+    }
+
+    @Test
+    public void hyperLogLog() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 100000; i++)
+            hll.add(i);
+        assertEquals(100000, hll.estimate(), 100000 * 0.1);
+        for (int i = 0; i < 100000; i++)
+            hll.add(i % 100);
+        assertEquals(100000, hll.estimate(), 100000 * 0.1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -22,6 +22,28 @@ import simpledb.*;
 public class ScanTest extends SimpleDbTestBase {
     private final static Random r = new Random();
 
+    /** Counts the number of pages read, one at a time or in runs. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public synchronized Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        @Override
+        public synchronized ArrayList<Page> readPages(PageId first, int count) {
+            ArrayList<Page> pages = super.readPages(first, count);
+            readCount += pages.size();
+            return pages;
+        }
+
+        public int readCount = 0;
+    }
+
     /** Tests the scan operator for a table with the specified dimensions. */
     private void validateScan(int[] columnSizes, int[] rowSizes)
             throws IOException, DbException, TransactionAbortedException {
@@ -71,21 +93,6 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
-
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
-            }
-
-            public int readCount = 0;
-        }
-
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -104,6 +111,27 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that scanning a table larger than the buffer pool does not
+     * push a small, cached table out of it. */
+    @Test public void testScanRing() throws IOException, DbException, TransactionAbortedException {
+        final int HOT_PAGES = 10;
+        final int COLD_PAGES = BufferPool.DEFAULT_PAGES + 10;
+        ArrayList<ArrayList<Integer>> hotTuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*HOT_PAGES, 1000, null, hotTuples);
+        InstrumentedHeapFile hot = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> coldTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile cold = SystemTestUtil.createRandomHeapFile(1, 992*COLD_PAGES, null, coldTuples);
+
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(HOT_PAGES, hot.readCount);
+        hot.readCount = 0;
+
+        SystemTestUtil.matchTuples(cold, coldTuples);
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(0, hot.readCount);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);